@@ -0,0 +1,87 @@
+package org.quuux.touchcast.gesture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Template packs and drawn strokes for the benchmarks, made from the
+ * compiled built-in templates found in the directory named by the
+ * touchcast.templates system property.
+ */
+class BenchmarkStrokes {
+
+    static final float WARP = 0.25f;
+    static final float JITTER = 4;
+
+    static List<Recognizer.UniStroke> builtIn() throws IOException {
+        return builtIn(Recognizer.Tier.STANDARD);
+    }
+
+    static List<Recognizer.UniStroke> builtIn(final Recognizer.Tier tier) throws IOException {
+        final String dir = System.getProperty("touchcast.templates");
+        if (dir == null)
+            throw new IOException("touchcast.templates is not set");
+
+        final InputStream in = new FileInputStream(new File(dir, TemplateStore.getUnistrokeAsset(tier)));
+        try {
+            return TemplateStore.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The built-in templates of a tier, followed by warped copies of them up
+     * to size.
+     */
+    static List<Recognizer.UniStroke> pack(final int size, final Recognizer.Tier tier, final Random random) throws IOException {
+        final List<Recognizer.UniStroke> builtIn = builtIn(tier);
+        final List<Recognizer.UniStroke> rv = new ArrayList<Recognizer.UniStroke>(size);
+        for (int i = 0; i < size; i++) {
+            final Recognizer.UniStroke source = builtIn.get(i % builtIn.size());
+            if (i < builtIn.size())
+                rv.add(source);
+            else
+                rv.add(new Recognizer.UniStroke(source.name + "#" + i, warp(source.points, random), tier.numPoints, tier));
+        }
+        return rv;
+    }
+
+    /**
+     * A template drawn as length raw points, scaled and moved into screen
+     * coordinates with every point jittered.
+     */
+    static float[] draw(final Recognizer.UniStroke template, final int length, final Random random) {
+        final float[] points = Recognizer.resample(template.points, template.points.length / 2, length, new float[length * 2]);
+        final float scale = 1 + random.nextFloat();
+        final float ox = 200 + random.nextFloat() * 400;
+        final float oy = 200 + random.nextFloat() * 400;
+        for (int i = 0; i < length; i++) {
+            points[i * 2] = points[i * 2] * scale + ox + (random.nextFloat() - 0.5f) * JITTER;
+            points[i * 2 + 1] = points[i * 2 + 1] * scale + oy + (random.nextFloat() - 0.5f) * JITTER;
+        }
+        return points;
+    }
+
+    /**
+     * A copy of normalized points with a random stretch and shear of up to
+     * WARP applied.
+     */
+    private static float[] warp(final float[] points, final Random random) {
+        final float sx = 1 + (random.nextFloat() - 0.5f) * 2 * WARP;
+        final float sy = 1 + (random.nextFloat() - 0.5f) * 2 * WARP;
+        final float shear = (random.nextFloat() - 0.5f) * 2 * WARP;
+
+        final float[] rv = new float[points.length];
+        for (int i = 0; i < points.length / 2; i++) {
+            rv[i * 2] = points[i * 2] * sx + points[i * 2 + 1] * shear;
+            rv[i * 2 + 1] = points[i * 2 + 1] * sy;
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,180 @@
+package org.quuux.touchcast.gesture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot path of the recognizer, from the kernels up to a whole recognize
+ * call. Each benchmark cycles through a set of drawn strokes so a single
+ * stroke's branches are not learned.
+ *
+ * The kernels are parameterized by the number of resampled points, recognize
+ * and distanceAtBestAngle by the tier, which sets both the points and the
+ * angle precision. recognize also runs over packs of templates and raw
+ * strokes of varying length.
+ *
+ * Run with the GC profiler, see the jmh task. Nothing here should allocate,
+ * so any bytes per operation are a regression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecognizerBenchmark {
+
+    static final int STROKES = 64;
+    static final long SEED = 1;
+
+    @State(Scope.Thread)
+    public static class Kernel {
+        @Param({"32", "64", "128"})
+        public int numPoints;
+
+        @Param({"256"})
+        public int rawLength;
+
+        float[][] raw;
+        float[][] points;
+        float[][] vectors;
+        float[] dst;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final List<Recognizer.UniStroke> templates = BenchmarkStrokes.builtIn();
+            final Random random = new Random(SEED);
+
+            raw = new float[STROKES][];
+            points = new float[STROKES][];
+            vectors = new float[STROKES][];
+            for (int i = 0; i < STROKES; i++) {
+                raw[i] = BenchmarkStrokes.draw(templates.get(i % templates.size()), rawLength, random);
+                points[i] = Recognizer.resample(raw[i], rawLength, numPoints, new float[numPoints * 2]);
+                Recognizer.translateTo(points[i], numPoints, Recognizer.ORIGIN_X, Recognizer.ORIGIN_Y, points[i]);
+                vectors[i] = Recognizer.vectorize(points[i], numPoints, new float[numPoints * 2]);
+            }
+            dst = new float[numPoints * 2];
+        }
+
+        int next() {
+            next = (next + 1) % STROKES;
+            return next;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Search {
+        @Param({"16", "256", "4096"})
+        public int templates;
+
+        @Param({"32", "128", "512"})
+        public int strokeLength;
+
+        @Param({"PROTRACTOR", "GOLDEN_SECTION"})
+        public Recognizer.Mode mode;
+
+        @Param({"COARSE", "STANDARD", "FINE"})
+        public Recognizer.Tier tier;
+
+        Recognizer recognizer;
+        float[][] strokes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final Random random = new Random(SEED);
+            final List<Recognizer.UniStroke> pack = BenchmarkStrokes.pack(templates, tier, random);
+
+            recognizer = new Recognizer(tier, pack);
+            strokes = new float[STROKES][];
+            for (int i = 0; i < STROKES; i++)
+                strokes[i] = BenchmarkStrokes.draw(pack.get(random.nextInt(pack.size())), strokeLength, random);
+
+            // templates are prepared on the first call
+            recognizer.recognize(strokes[0], strokeLength, mode);
+        }
+
+        float[] next() {
+            next = (next + 1) % STROKES;
+            return strokes[next];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Angle {
+        @Param({"COARSE", "STANDARD", "FINE"})
+        public Recognizer.Tier tier;
+
+        List<Recognizer.UniStroke> templates;
+        float[][] queries;
+        float[] scratch;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            final Random random = new Random(SEED);
+            templates = BenchmarkStrokes.builtIn(tier);
+            queries = new float[STROKES][];
+            for (int i = 0; i < STROKES; i++) {
+                final float[] raw = BenchmarkStrokes.draw(templates.get(i % templates.size()), 128, random);
+                queries[i] = Recognizer.normalize(raw, 128, new float[tier.numPoints * 2]);
+            }
+            scratch = new float[tier.numPoints * 2];
+        }
+
+        int next() {
+            next = (next + 1) % STROKES;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public float[] resample(final Kernel state) {
+        return Recognizer.resample(state.raw[state.next()], state.rawLength, state.numPoints, state.dst);
+    }
+
+    @Benchmark
+    public float[] rotateBy(final Kernel state) {
+        return Recognizer.rotateBy(state.points[state.next()], state.numPoints, 0.3f, state.dst);
+    }
+
+    @Benchmark
+    public float[] vectorize(final Kernel state) {
+        return Recognizer.vectorize(state.points[state.next()], state.numPoints, state.dst);
+    }
+
+    @Benchmark
+    public float optimalCosineDistance(final Kernel state) {
+        final int i = state.next();
+        return Recognizer.optimalCosineDistance(state.vectors[i], state.vectors[(i + 1) % STROKES]);
+    }
+
+    @Benchmark
+    public float distanceAtBestAngle(final Angle state) {
+        final int i = state.next();
+        final Recognizer.UniStroke template = state.templates.get((i + 1) % state.templates.size());
+        return Recognizer.distanceAtBestAngle(state.queries[i], template, -Recognizer.angleRange, Recognizer.angleRange,
+                state.tier.anglePrecision, state.scratch);
+    }
+
+    @Benchmark
+    public Recognizer.Result recognize(final Search state) {
+        return state.recognizer.recognize(state.next(), state.strokeLength, state.mode);
+    }
+}
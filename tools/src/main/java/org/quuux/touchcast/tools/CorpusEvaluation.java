@@ -0,0 +1,55 @@
+package org.quuux.touchcast.tools;
+
+import org.quuux.touchcast.gesture.BatchEvaluation;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.StrokeCorpus;
+import org.quuux.touchcast.gesture.TemplateStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a recorded stroke corpus through the recognizer with the built-in
+ * templates and prints throughput, latency and the confusion matrix.
+ *
+ * usage: CorpusEvaluation <asset dir> <corpus> [mode] [tier]
+ */
+public class CorpusEvaluation {
+
+    static final int WARMUP_ROUNDS = 2;
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CorpusEvaluation <asset dir> <corpus> [mode] [tier]");
+            System.exit(1);
+        }
+
+        final File assets = new File(args[0]);
+        final Recognizer.Mode mode = args.length > 2 ? Recognizer.Mode.valueOf(args[2]) : Recognizer.Mode.PROTRACTOR;
+        final Recognizer.Tier tier = args.length > 3 ? Recognizer.Tier.valueOf(args[3]) : Recognizer.Tier.STANDARD;
+
+        TemplateStore.getDefault().setSource(new TemplateStore.Source() {
+            @Override
+            public InputStream open(final String asset) throws IOException {
+                return new FileInputStream(new File(assets, asset));
+            }
+        });
+
+        final InputStream in = new FileInputStream(args[1]);
+        final List<StrokeCorpus.Entry> entries;
+        try {
+            entries = StrokeCorpus.read(in);
+        } finally {
+            in.close();
+        }
+
+        final Recognizer recognizer = new Recognizer(tier);
+
+        System.out.println(String.format(Locale.US, "%s: %d templates, %s, %s", args[1], recognizer.getTemplateCount(), mode, tier));
+        System.out.print(BatchEvaluation.run(recognizer, mode, entries, WARMUP_ROUNDS).format());
+    }
+}
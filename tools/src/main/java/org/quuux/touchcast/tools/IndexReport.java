@@ -0,0 +1,154 @@
+package org.quuux.touchcast.tools;
+
+import org.quuux.touchcast.gesture.MultiStrokeRecognizer;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.TemplateIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a TemplateIndex over a large synthetic gesture pack and compares it
+ * with the exhaustive scan. The pack is made of warped copies of the
+ * built-in unistroke templates, the queries are jittered drawings of
+ * templates from the pack. Recall@1 is how often the indexed search returns
+ * the template the exhaustive scan returns. Correct counts results warped
+ * from the same built-in template as the query, since the warped copies of
+ * one template are often closer to each other than the jitter.
+ *
+ * usage: IndexReport <source dir> [templates] [queries]
+ */
+public class IndexReport {
+
+    static final int[] BEAMS = { 1, 2, 3, 4, 6 };
+    static final int MAX_POINTS = 4096;
+    static final float WARP = 0.25f;
+    static final float JITTER = 6;
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: IndexReport <source dir> [templates] [queries]");
+            System.exit(1);
+        }
+
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        final int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        final List<MultiStrokeRecognizer.MultiStroke> sources = TemplateCompiler.parse(new File(args[0], TemplateCompiler.UNISTROKES));
+        final Random random = new Random(1);
+
+        final List<MultiStrokeRecognizer.MultiStroke> pack = new ArrayList<MultiStrokeRecognizer.MultiStroke>(size);
+        final List<Recognizer.UniStroke> templates = new ArrayList<Recognizer.UniStroke>(size);
+        for (int i = 0; i < size; i++) {
+            final MultiStrokeRecognizer.MultiStroke source = sources.get(i % sources.size());
+            final MultiStrokeRecognizer.MultiStroke warped = warp(source, source.name + "#" + i, random);
+            pack.add(warped);
+            templates.add(warped.permute().get(0));
+        }
+
+        final long buildStart = System.nanoTime();
+        final TemplateIndex built = TemplateIndex.build(templates, TemplateIndex.DEFAULT_BRANCHING, TemplateIndex.DEFAULT_LEAF_SIZE, 1);
+        final double buildMillis = (System.nanoTime() - buildStart) / 1e6;
+
+        // what ships is the index read back from its serialized form
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        built.write(out);
+        final TemplateIndex index = TemplateIndex.read(new ByteArrayInputStream(out.toByteArray()), templates);
+
+        System.out.println(String.format("%d templates, branching %d, leaf size %d", size, TemplateIndex.DEFAULT_BRANCHING, TemplateIndex.DEFAULT_LEAF_SIZE));
+        System.out.println(String.format("built in %.0fms, %d nodes, depth %d, %d bytes", buildMillis, index.getNodeCount(), index.getDepth(), out.size()));
+
+        final float[][] strokes = new float[queries][];
+        final int[] counts = new int[queries];
+        final String[] names = new String[queries];
+        final float[] points = new float[MAX_POINTS * 2];
+        for (int q = 0; q < queries; q++) {
+            final MultiStrokeRecognizer.MultiStroke template = pack.get(random.nextInt(size));
+            counts[q] = MultiStrokeBenchmark.draw(template, random, points, false, JITTER);
+            strokes[q] = new float[counts[q] * 2];
+            System.arraycopy(points, 0, strokes[q], 0, counts[q] * 2);
+            names[q] = family(template.name);
+        }
+
+        final Recognizer exhaustive = new Recognizer(templates);
+        final Recognizer.UniStroke[] expected = new Recognizer.UniStroke[queries];
+        run(exhaustive, strokes, counts, expected); // warm up
+        final long exhaustiveNanos = run(exhaustive, strokes, counts, expected);
+        report("exhaustive", expected, expected, names, exhaustiveNanos, queries);
+
+        final Recognizer indexed = new Recognizer(templates);
+        indexed.setIndex(index);
+        final Recognizer.UniStroke[] found = new Recognizer.UniStroke[queries];
+        for (final int beam : BEAMS) {
+            index.setBeamWidth(beam);
+            run(indexed, strokes, counts, found);
+            final long nanos = run(indexed, strokes, counts, found);
+            report("beam " + beam, found, expected, names, nanos, queries);
+        }
+    }
+
+    private static long run(final Recognizer recognizer, final float[][] strokes, final int[] counts, final Recognizer.UniStroke[] results) {
+        final long start = System.nanoTime();
+        for (int q = 0; q < strokes.length; q++) {
+            final Recognizer.Result result = recognizer.recognize(strokes[q], counts[q], Recognizer.Mode.PROTRACTOR);
+            results[q] = result != null ? result.stroke : null;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(final String label, final Recognizer.UniStroke[] found, final Recognizer.UniStroke[] expected,
+                               final String[] names, final long nanos, final int queries) {
+        int recalled = 0;
+        int correct = 0;
+        for (int q = 0; q < queries; q++) {
+            if (found[q] == expected[q])
+                recalled++;
+            if (found[q] != null && family(found[q].name).equals(names[q]))
+                correct++;
+        }
+
+        System.out.println(String.format("%-12s recall@1 %6.2f%%  correct %6.2f%%  %8.1fus per query", label,
+                100.0 * recalled / queries, 100.0 * correct / queries, nanos / 1e3 / queries));
+    }
+
+    private static String family(final String name) {
+        return name.substring(0, name.lastIndexOf('#'));
+    }
+
+    /**
+     * A copy of a template with a random shear, stretch and a gentle wave
+     * applied, each moving points by at most WARP of the template's size.
+     */
+    static MultiStrokeRecognizer.MultiStroke warp(final MultiStrokeRecognizer.MultiStroke template, final String name, final Random random) {
+        final float[][] strokes = new float[template.getStrokeCount()][];
+
+        for (int s = 0; s < strokes.length; s++) {
+            final float[] stroke = template.getStroke(s);
+            final int count = stroke.length / 2;
+            final float cx = Recognizer.centroidX(stroke, count);
+            final float cy = Recognizer.centroidY(stroke, count);
+            final float size = Math.max(1, Recognizer.pathLength(stroke, count) / 4);
+
+            final float sx = 1 + (random.nextFloat() - 0.5f) * 2 * WARP;
+            final float sy = 1 + (random.nextFloat() - 0.5f) * 2 * WARP;
+            final float shear = (random.nextFloat() - 0.5f) * 2 * WARP;
+            final float amplitude = random.nextFloat() * WARP * size / 2;
+            final float phase = random.nextFloat() * (float) (2 * Math.PI);
+
+            strokes[s] = new float[stroke.length];
+            for (int i = 0; i < count; i++) {
+                final float x = stroke[i * 2] - cx;
+                final float y = stroke[i * 2 + 1] - cy;
+                strokes[s][i * 2] = cx + x * sx + y * shear + amplitude * (float) Math.sin(phase + y / size * Math.PI);
+                strokes[s][i * 2 + 1] = cy + y * sy + amplitude * (float) Math.sin(phase + x / size * Math.PI);
+            }
+        }
+
+        return new MultiStrokeRecognizer.MultiStroke(name, strokes);
+    }
+}
@@ -0,0 +1,257 @@
+package org.quuux.touchcast.tools;
+
+import org.quuux.touchcast.game.EntityStore;
+import org.quuux.touchcast.game.Player;
+import org.quuux.touchcast.game.Spell;
+import org.quuux.touchcast.game.SpellBook;
+import org.quuux.touchcast.game.TurnPayload;
+import org.quuux.touchcast.game.World;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many matches between bots at once, the way devices do. A turn
+ * reads the payload of the last turn onto the player's saved world, casts
+ * a few spells, ends the turn and writes its payload, and saves the world
+ * as written. Reports turns per second, payload sizes, allocation per
+ * turn and turn latency. Exits with status 1 if a match fails or the 99th
+ * percentile is over the budget.
+ *
+ * usage: MatchSimulation <spell book> [matches] [turns] [threads] [budget ms]
+ */
+public class MatchSimulation {
+
+    static final int PLAYERS = 2;
+    static final int MAX_CASTS = 3;
+    static final int MAX_ENTITIES = 40; // bots stop summoning past this
+    static final int WARMUP_MATCHES = 200;
+
+    static class Result {
+        final long[] times;       // nanoseconds per turn
+        final int[] payloads;     // bytes per turn
+        final boolean[] deltas;
+        long allocated = -1;      // bytes, -1 if the vm can't tell
+        int worldSize;
+
+        Result(final int turns) {
+            times = new long[turns];
+            payloads = new int[turns];
+            deltas = new boolean[turns];
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: MatchSimulation <spell book> [matches] [turns] [threads] [budget ms]");
+            System.exit(1);
+        }
+
+        final int matches = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int turns = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        final int threads = args.length > 3 && Integer.parseInt(args[3]) > 0 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+        final double budget = args.length > 4 ? Double.parseDouble(args[4]) : 5.0;
+
+        final InputStream in = new FileInputStream(args[0]);
+        try {
+            SpellBook.setDefault(SpellBook.read(in));
+        } finally {
+            in.close();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Result> results;
+        final long elapsed;
+        try {
+            run(executor, WARMUP_MATCHES, turns, -1);
+            final long start = System.nanoTime();
+            results = run(executor, matches, turns, 0);
+            elapsed = System.nanoTime() - start;
+        } catch (ExecutionException e) {
+            System.err.println("match failed");
+            e.getCause().printStackTrace();
+            System.exit(1);
+            return;
+        } finally {
+            executor.shutdown();
+        }
+
+        final long[] times = new long[matches * turns];
+        final int[] payloads = new int[matches * turns];
+        long deltaBytes = 0, keyframeBytes = 0, allocated = 0, worldBytes = 0;
+        int deltas = 0, n = 0;
+        boolean allocations = true;
+        for (final Result result : results) {
+            for (int i = 0; i < turns; i++, n++) {
+                times[n] = result.times[i];
+                payloads[n] = result.payloads[i];
+                if (result.deltas[i]) {
+                    deltas++;
+                    deltaBytes += result.payloads[i];
+                } else {
+                    keyframeBytes += result.payloads[i];
+                }
+            }
+            allocations &= result.allocated >= 0;
+            allocated += result.allocated;
+            worldBytes += result.worldSize;
+        }
+
+        Arrays.sort(times);
+        Arrays.sort(payloads);
+        final double p50 = times[n / 2] / 1e6;
+        final double p99 = times[(int) (n * 0.99)] / 1e6;
+        final double max = times[n - 1] / 1e6;
+
+        System.out.println(String.format(Locale.US, "%d matches of %d turns on %d threads", matches, turns, threads));
+        System.out.println(String.format(Locale.US, "%.0f turns/s, %.2fs", n / (elapsed / 1e9), elapsed / 1e9));
+        System.out.println(String.format(Locale.US, "payload p50 %dB p99 %dB max %dB, deltas %d avg %.0fB, keyframes %d avg %.0fB, final world avg %.0fB",
+                payloads[n / 2], payloads[(int) (n * 0.99)], payloads[n - 1],
+                deltas, deltas > 0 ? (double) deltaBytes / deltas : 0,
+                n - deltas, n > deltas ? (double) keyframeBytes / (n - deltas) : 0,
+                (double) worldBytes / matches));
+        System.out.println(allocations
+                ? String.format(Locale.US, "allocated %.1fKB per turn", allocated / 1024.0 / n)
+                : "allocation per turn not available on this vm");
+        System.out.println(String.format(Locale.US, "turn p50 %.3fms p99 %.3fms max %.3fms, budget %.3fms", p50, p99, max, budget));
+
+        if (p99 > budget) {
+            System.err.println("p99 is over budget");
+            System.exit(1);
+        }
+    }
+
+    static List<Result> run(final ExecutorService executor, final int matches, final int turns, final int seed)
+            throws InterruptedException, ExecutionException {
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for (int i = 0; i < matches; i++) {
+            final long matchSeed = seed < 0 ? -1 - i : seed + i;
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws IOException {
+                    return play(matchSeed, turns);
+                }
+            }));
+        }
+
+        final List<Result> rv = new ArrayList<Result>();
+        for (final Future<Result> future : futures)
+            rv.add(future.get());
+        return rv;
+    }
+
+    static Result play(final long seed, final int turns) throws IOException {
+        final Random random = new Random(seed);
+        final Result result = new Result(turns);
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final boolean allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        final long thread = Thread.currentThread().getId();
+        long allocated = 0;
+
+        final List<String> participants = new ArrayList<String>();
+        final Player[] players = new Player[PLAYERS];
+        final byte[][] saved = new byte[PLAYERS][];
+        for (int i = 0; i < PLAYERS; i++) {
+            participants.add("p" + i);
+            players[i] = new Player();
+            players[i].uuid = new UUID(seed, i);
+            players[i].name = "bot " + i;
+            players[i].tileKey = "wizard";
+        }
+
+        byte[] data = null;
+        for (int turn = 0; turn < turns; turn++) {
+            final int me = turn % PLAYERS;
+            final long allocatedBefore = allocations
+                    ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) : 0;
+            final long start = System.nanoTime();
+
+            final TurnPayload payload;
+            final World world;
+            if (data == null) {
+                payload = new TurnPayload();
+                world = World.generate(seed);
+            } else {
+                payload = TurnPayload.read(data, saved[me], null);
+                world = payload.getWorld();
+            }
+
+            world.setOrder(participants);
+            world.join(participants.get(me), players[me]);
+            castSpells(world, players[me], random);
+            world.endTurn();
+
+            data = payload.write(world, participants.get(me), participants.get((turn + 1) % PLAYERS));
+            saved[me] = payload.getSnapshot();
+
+            result.times[turn] = System.nanoTime() - start;
+            if (allocations)
+                allocated += ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) - allocatedBefore;
+            result.payloads[turn] = data.length;
+            result.deltas[turn] = TurnPayload.isDelta(data);
+            result.worldSize = saved[me].length;
+        }
+
+        if (allocations)
+            result.allocated = allocated;
+        return result;
+    }
+
+    // casts up to MAX_CASTS spells, each on a random living entity in range
+    // or on the caster
+    static void castSpells(final World world, final Player player, final Random random) {
+        final SpellBook book = SpellBook.getDefault();
+        final EntityStore entities = world.getEntityStore();
+        final int self = entities.findPlayer(player);
+        if (self < 0 || world.isDead(self) || book.getSpellCount() == 0)
+            return;
+
+        final int casts = 1 + random.nextInt(MAX_CASTS);
+        for (int i = 0; i < casts; i++) {
+            final Spell spell = book.getSpell(random.nextInt(book.getSpellCount()));
+            final int id = spell.getId();
+            if (book.getEffect(id) == SpellBook.Effect.SUMMON && entities.size() >= MAX_ENTITIES)
+                continue;
+
+            World.Entity target = null;
+            if (book.getRange(id) > 0) {
+                final int handle = pickTarget(world, self, book.getRange(id), random);
+                if (handle < 0)
+                    continue;
+                target = world.getEntity(handle);
+            }
+            world.castSpell(player, spell, target);
+        }
+    }
+
+    static int pickTarget(final World world, final int self, final int range, final Random random) {
+        final EntityStore entities = world.getEntityStore();
+        int rv = -1, seen = 0;
+        for (int handle = 0; handle < entities.size(); handle++) {
+            if (handle == self || world.isDead(handle))
+                continue;
+
+            final int distance = Math.max(Math.abs(entities.getX(handle) - entities.getX(self)),
+                    Math.abs(entities.getY(handle) - entities.getY(self)));
+            if (distance <= range && random.nextInt(++seen) == 0)
+                rv = handle;
+        }
+        return rv;
+    }
+}
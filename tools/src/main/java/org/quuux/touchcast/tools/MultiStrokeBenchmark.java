@@ -0,0 +1,159 @@
+package org.quuux.touchcast.tools;
+
+import org.quuux.touchcast.gesture.MultiStrokeRecognizer;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.TemplateStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that multistroke recognition stays within a latency budget. Every
+ * template is drawn many times in a random stroke order and direction with
+ * some rotation, scaling and jitter, and each recognition is timed. Exits
+ * with status 1 if the 99th percentile is over the budget.
+ *
+ * usage: MultiStrokeBenchmark <asset dir> [budget ms] [samples per template]
+ */
+public class MultiStrokeBenchmark {
+
+    static final int WARMUP_ROUNDS = 2;
+    static final int MAX_POINTS = 4096;
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: MultiStrokeBenchmark <asset dir> [budget ms] [samples per template]");
+            System.exit(1);
+        }
+
+        final File assets = new File(args[0]);
+        final double budget = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        final int samples = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        TemplateStore.getDefault().setSource(new TemplateStore.Source() {
+            @Override
+            public InputStream open(final String asset) throws IOException {
+                return new FileInputStream(new File(assets, asset));
+            }
+        });
+
+        final InputStream in = new FileInputStream(new File(assets, TemplateStore.MULTISTROKE_ASSET));
+        final List<MultiStrokeRecognizer.MultiStroke> templates;
+        try {
+            templates = TemplateStore.readMultiStrokes(in);
+        } finally {
+            in.close();
+        }
+
+        final MultiStrokeRecognizer recognizer = new MultiStrokeRecognizer();
+        final Random random = new Random(1);
+
+        final long[] times = new long[templates.size() * samples];
+        int correct = 0;
+        final float[] points = new float[MAX_POINTS * 2];
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            final boolean measured = round == WARMUP_ROUNDS;
+            int n = 0;
+            for (int s = 0; s < samples; s++) {
+                for (final MultiStrokeRecognizer.MultiStroke template : templates) {
+                    final int count = draw(template, random, points);
+
+                    final long start = System.nanoTime();
+                    final Recognizer.Result result = recognizer.recognize(points, count, template.getStrokeCount(), Recognizer.Mode.PROTRACTOR);
+                    final long elapsed = System.nanoTime() - start;
+
+                    if (measured) {
+                        times[n++] = elapsed;
+                        if (result != null && result.stroke.name.equals(template.name))
+                            correct++;
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(times);
+        final double p50 = times[times.length / 2] / 1e6;
+        final double p99 = times[(int) (times.length * 0.99)] / 1e6;
+        final double max = times[times.length - 1] / 1e6;
+
+        for (int strokes = 1; strokes <= MultiStrokeRecognizer.MAX_STROKES; strokes++)
+            System.out.println(String.format("%d strokes: %d permutations", strokes, recognizer.getTemplateCount(strokes)));
+
+        System.out.println(String.format("%d recognitions, accuracy %.1f%%", times.length, 100.0 * correct / times.length));
+        System.out.println(String.format("p50 %.3fms p99 %.3fms max %.3fms, budget %.3fms", p50, p99, max, budget));
+
+        if (p99 > budget) {
+            System.err.println("p99 is over budget");
+            System.exit(1);
+        }
+    }
+
+    static int draw(final MultiStrokeRecognizer.MultiStroke template, final Random random, final float[] points) {
+        return draw(template, random, points, true, 3);
+    }
+
+    /**
+     * Draws a template into points and returns the number of points. The
+     * strokes are drawn as authored unless shuffle is set, in which case they
+     * come in a random order and direction. Each point is moved by up to half
+     * of jitter on both axes.
+     */
+    static int draw(final MultiStrokeRecognizer.MultiStroke template, final Random random, final float[] points,
+                    final boolean shuffle, final float jitter) {
+        final int strokes = template.getStrokeCount();
+
+        final int[] order = new int[strokes];
+        for (int i = 0; i < strokes; i++)
+            order[i] = i;
+        for (int i = strokes - 1; shuffle && i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        final float angle = (random.nextFloat() - 0.5f) * (float) Math.toRadians(20);
+        final float cos = (float) Math.cos(angle);
+        final float sin = (float) Math.sin(angle);
+        final float scale = 0.5f + random.nextFloat();
+        final float ox = random.nextFloat() * 500;
+        final float oy = random.nextFloat() * 500;
+
+        int count = 0;
+        for (final int s : order) {
+            final float[] stroke = template.getStroke(s);
+            final int n = stroke.length / 2;
+            final boolean backwards = shuffle && random.nextBoolean();
+
+            for (int i = 0; i < n - 1 || (n == 1 && i == 0); i++) {
+                final int a = backwards ? n - 1 - i : i;
+                final int b = n == 1 ? a : (backwards ? a - 1 : a + 1);
+                final float ax = stroke[a * 2], ay = stroke[a * 2 + 1];
+                final float bx = stroke[b * 2], by = stroke[b * 2 + 1];
+
+                // touch events arrive every few pixels along a segment
+                final int steps = Math.max(1, (int) (Recognizer.distance(ax, ay, bx, by) / 4));
+                final boolean last = i == n - 2 || n == 1;
+                for (int k = 0; k < steps + (last ? 1 : 0); k++) {
+                    if (points.length < (count + 1) * 2)
+                        throw new IllegalStateException(template.name + " has more than " + MAX_POINTS + " points");
+
+                    final float t = (float) k / steps;
+                    final float x = (ax + (bx - ax) * t) * scale + (random.nextFloat() - 0.5f) * jitter;
+                    final float y = (ay + (by - ay) * t) * scale + (random.nextFloat() - 0.5f) * jitter;
+                    points[count * 2] = ox + x * cos - y * sin;
+                    points[count * 2 + 1] = oy + x * sin + y * cos;
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+}
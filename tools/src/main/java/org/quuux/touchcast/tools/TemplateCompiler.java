@@ -0,0 +1,140 @@
+package org.quuux.touchcast.tools;
+
+import org.quuux.touchcast.gesture.MultiStrokeRecognizer;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.TemplateStore;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the template sources into the binary assets read by
+ * TemplateStore.
+ *
+ * The sources have one template per line, "name: x,y x,y ...", with the
+ * strokes of a multistroke template separated by |. Blank lines and lines
+ * starting with # are skipped.
+ *
+ * usage: TemplateCompiler <source dir> <asset dir>
+ */
+public class TemplateCompiler {
+
+    static final String UNISTROKES = "unistrokes.txt";
+    static final String MULTISTROKES = "multistrokes.txt";
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TemplateCompiler <source dir> <asset dir>");
+            System.exit(1);
+        }
+
+        final File sources = new File(args[0]);
+        final File assets = new File(args[1]);
+
+        final List<MultiStrokeRecognizer.MultiStroke> sourceUnistrokes = parse(new File(sources, UNISTROKES));
+        for (final MultiStrokeRecognizer.MultiStroke template : sourceUnistrokes)
+            if (template.getStrokeCount() != 1)
+                throw new IOException(template.name + " in " + UNISTROKES + " has more than one stroke");
+
+        final List<MultiStrokeRecognizer.MultiStroke> multistrokes = parse(new File(sources, MULTISTROKES));
+
+        // every tier is normalized from the authored points
+        for (final Recognizer.Tier tier : Recognizer.Tier.values()) {
+            final List<Recognizer.UniStroke> unistrokes = new ArrayList<Recognizer.UniStroke>();
+            for (final MultiStrokeRecognizer.MultiStroke template : sourceUnistrokes) {
+                final float[] stroke = template.getStroke(0);
+                unistrokes.add(new Recognizer.UniStroke(template.name, stroke, stroke.length / 2, tier));
+            }
+
+            final File unistrokeAsset = new File(assets, TemplateStore.getUnistrokeAsset(tier));
+            final OutputStream unistrokeOut = open(unistrokeAsset);
+            try {
+                TemplateStore.write(unistrokeOut, unistrokes);
+            } finally {
+                unistrokeOut.close();
+            }
+
+            System.out.println(String.format("compiled %d %s templates into %s (%d bytes)", unistrokes.size(), tier, unistrokeAsset, unistrokeAsset.length()));
+        }
+
+        final File multistrokeAsset = new File(assets, TemplateStore.MULTISTROKE_ASSET);
+        final OutputStream multistrokeOut = open(multistrokeAsset);
+        try {
+            TemplateStore.writeMultiStrokes(multistrokeOut, multistrokes);
+        } finally {
+            multistrokeOut.close();
+        }
+
+        System.out.println(String.format("compiled %d multistroke templates into %s (%d bytes)", multistrokes.size(), multistrokeAsset, multistrokeAsset.length()));
+    }
+
+    private static OutputStream open(final File file) throws IOException {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("could not create " + dir);
+
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    static List<MultiStrokeRecognizer.MultiStroke> parse(final File source) throws IOException {
+        final List<MultiStrokeRecognizer.MultiStroke> rv = new ArrayList<MultiStrokeRecognizer.MultiStroke>();
+
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+        try {
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                final int colon = line.indexOf(':');
+                if (colon < 1)
+                    throw new IOException(String.format("%s:%d: expected \"name: x,y ...\"", source, lineNumber));
+
+                final String name = line.substring(0, colon).trim();
+                final String[] parts = line.substring(colon + 1).split("\\|");
+                final float[][] strokes = new float[parts.length][];
+                for (int s = 0; s < parts.length; s++)
+                    strokes[s] = parseStroke(source, lineNumber, parts[s].trim());
+
+                try {
+                    rv.add(new MultiStrokeRecognizer.MultiStroke(name, strokes));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(String.format("%s:%d: %s", source, lineNumber, e.getMessage()));
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return rv;
+    }
+
+    private static float[] parseStroke(final File source, final int lineNumber, final String stroke) throws IOException {
+        final String[] pairs = stroke.split("\\s+");
+        final float[] points = new float[pairs.length * 2];
+        for (int i = 0; i < pairs.length; i++) {
+            final String[] xy = pairs[i].split(",");
+            if (xy.length != 2)
+                throw new IOException(String.format("%s:%d: bad point \"%s\"", source, lineNumber, pairs[i]));
+
+            try {
+                points[i * 2] = Float.parseFloat(xy[0]);
+                points[i * 2 + 1] = Float.parseFloat(xy[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("%s:%d: bad point \"%s\"", source, lineNumber, pairs[i]));
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,74 @@
+package org.quuux.touchcast;
+
+/**
+ * Console stand-in for the app Log when running on the build machine.
+ * Debug and verbose output is printed when touchcast.debug is set.
+ */
+public class Log  {
+
+    private static final boolean DEBUG = Boolean.getBoolean("touchcast.debug");
+
+    private static String sPrefix;
+
+    public static void setsPrefix(final String prefix) {
+        sPrefix = prefix;
+    }
+
+    public static String buildTag(final String tag) {
+        return sPrefix == null ? tag : sPrefix + ":" + tag;
+    }
+
+    public static String buildTag(final Class klass) {
+        return buildTag(klass.getName());
+    }
+
+    public static void d(final String tag, final String message, final Object...args) {
+        if (DEBUG)
+            print("D", tag, message, null, args);
+    }
+
+    public static void d(final String tag, final String message, final Throwable tr,  Object...args) {
+        if (DEBUG)
+            print("D", tag, message, tr, args);
+    }
+
+    public static void v(final String tag, final String message, final Object...args) {
+        if (DEBUG)
+            print("V", tag, message, null, args);
+    }
+
+    public static void v(final String tag, final String message, final Throwable tr,  Object...args) {
+        if (DEBUG)
+            print("V", tag, message, tr, args);
+    }
+
+    public static void i(final String tag, final String message, final Object...args) {
+        print("I", tag, message, null, args);
+    }
+
+    public static void i(final String tag, final String message, final Throwable tr,  Object...args) {
+        print("I", tag, message, tr, args);
+    }
+
+    public static void e(final String tag, final String message, final Object...args) {
+        print("E", tag, message, null, args);
+    }
+
+    public static void e(final String tag, final String message, final Throwable tr,  Object...args) {
+        print("E", tag, message, tr, args);
+    }
+
+    public static void w(final String tag, final String message, final Object...args) {
+        print("W", tag, message, null, args);
+    }
+
+    public static void w(final String tag, final String message, final Throwable tr,  Object...args) {
+        print("W", tag, message, tr, args);
+    }
+
+    private static void print(final String level, final String tag, final String message, final Throwable tr, final Object...args) {
+        System.err.println(level + "/" + buildTag(tag) + ": " + String.format(message, args));
+        if (tr != null)
+            tr.printStackTrace();
+    }
+}
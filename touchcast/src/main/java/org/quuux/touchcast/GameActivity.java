@@ -4,6 +4,7 @@ import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentSender;
+import android.content.res.AssetManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
@@ -20,12 +21,12 @@ import com.google.android.gms.games.Games;
 import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatch;
 
 import org.quuux.touchcast.game.Player;
-import org.quuux.touchcast.game.World;
+import org.quuux.touchcast.game.SpellBook;
+import org.quuux.touchcast.gesture.TemplateStore;
 import org.quuux.touchcast.ui.GestureView;
 import org.quuux.touchcast.ui.LoadingFragment;
 import org.quuux.touchcast.ui.MatchFragment;
 import org.quuux.touchcast.ui.LobbyFragment;
-import org.quuux.touchcast.ui.Recognizer;
 import org.quuux.touchcast.util.PlayerLoader;
 import org.quuux.touchcast.util.TileSet;
 
@@ -37,6 +38,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 
 public class GameActivity
@@ -57,7 +59,6 @@ public class GameActivity
     private static final String FRAG_GAME = "game";
     private static final String FRAG_LOADING = "loading";
 
-    Recognizer mRecognizer = new Recognizer();
     GestureView mContentView;
     GoogleApiClient mGoogleApiClient;
     boolean mResolvingError;
@@ -68,6 +69,19 @@ public class GameActivity
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // the templates are read by the first recognizer that needs them
+        final AssetManager assets = getApplicationContext().getAssets();
+        TemplateStore.getDefault().setSource(new TemplateStore.Source() {
+            @Override
+            public InputStream open(final String asset) throws IOException {
+                return assets.open(asset);
+            }
+        });
+
+        // spells are compiled once per process
+        if (SpellBook.getDefault().getSpellCount() == 0)
+            loadSpellBook(assets);
+
         mResolvingError = savedInstanceState != null
                 && savedInstanceState.getBoolean(STATE_RESOLVING_ERROR, false);
 
@@ -95,6 +109,23 @@ public class GameActivity
         ViewServer.get(this).removeWindow(this);
     }
 
+    private void loadSpellBook(final AssetManager assets) {
+        InputStream in = null;
+        try {
+            in = assets.open(SpellBook.ASSET);
+            SpellBook.setDefault(SpellBook.read(in));
+        } catch (IOException e) {
+            Log.e(TAG, "error loading spell book", e);
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                Log.e(TAG, "error closing spell book", e);
+            }
+        }
+    }
+
     private void fragReplace(Fragment frag, final String tag, final boolean addToBackStack) {
         final FragmentManager fm = getSupportFragmentManager();
         final FragmentTransaction transaction = fm.beginTransaction();
@@ -184,9 +215,7 @@ public class GameActivity
     }
 
     @Override
-    public void saveMatch(final String matchId, final World world) {
-        final byte[] data = world.serialize();
-
+    public void saveMatch(final String matchId, final byte[] data) {
         if (data == null)
             return;
 
@@ -194,13 +223,14 @@ public class GameActivity
             final FileOutputStream out = openFileOutput(matchId, MODE_PRIVATE);
             BufferedOutputStream bout = new BufferedOutputStream(out);
             bout.write(data);
+            bout.close();
         } catch (Exception e) {
             Log.e(TAG, "error saving match", e);
         }
     }
 
     @Override
-    public World loadMatch(final String matchId) {
+    public byte[] loadMatch(final String matchId) {
         try {
             final FileInputStream in = openFileInput(matchId);
             final BufferedInputStream bin = new BufferedInputStream(in);
@@ -214,9 +244,10 @@ public class GameActivity
                 buffer.write(data, 0, nRead);
             }
 
+            bin.close();
             buffer.flush();
 
-            return World.unserialize(buffer.toByteArray());
+            return buffer.toByteArray();
         } catch (Exception e) {
             Log.e(TAG, "error loading match", e);
         }
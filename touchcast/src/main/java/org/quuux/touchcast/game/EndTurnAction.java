@@ -0,0 +1,13 @@
+package org.quuux.touchcast.game;
+
+/**
+ * The end of a turn, the fixed step of the world: time units refill and
+ * shields wear off.
+ */
+public class EndTurnAction implements World.Action {
+
+    @Override
+    public void execute(final World world) {
+        world.step();
+    }
+}
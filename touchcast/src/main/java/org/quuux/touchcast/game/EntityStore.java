@@ -0,0 +1,216 @@
+package org.quuux.touchcast.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entities of a world as columns of primitives addressed by dense int
+ * handles, so a world of many npcs costs a few ints each and can be walked
+ * without touching an object per entity. Names and tile keys are interned,
+ * the columns hold their ids.
+ *
+ * Handles are assigned in order from 0 and never reused.
+ */
+public class EntityStore {
+
+    public static final int KIND_PLAYER = 0;
+    public static final int KIND_NPC = 1;
+
+    public static final int FLAG_DEAD = 1;
+
+    static final int INITIAL_CAPACITY = 16;
+
+    private int mCount;
+    private int[] mX = new int[INITIAL_CAPACITY];
+    private int[] mY = new int[INITIAL_CAPACITY];
+    private int[] mTile = new int[INITIAL_CAPACITY];
+    private int[] mName = new int[INITIAL_CAPACITY];
+    private byte[] mKind = new byte[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+    private int[] mHealth = new int[INITIAL_CAPACITY]; // of npcs, a player's is its stamina
+    private int[] mShield = new int[INITIAL_CAPACITY];
+    private int[] mShieldTurns = new int[INITIAL_CAPACITY]; // 0 for a shield that lasts until used
+
+    // players are few, so they are kept apart with the handle of each
+    private final List<Player> mPlayers = new ArrayList<Player>();
+    private int[] mPlayerHandles = new int[4];
+
+    private final List<String> mStrings = new ArrayList<String>();
+    private final Map<String, Integer> mStringIds = new HashMap<String, Integer>();
+
+    /**
+     * Adds an entity and returns its handle.
+     */
+    public int add(final int kind, final String name, final String tile, final int x, final int y) {
+        if (mCount == mX.length)
+            grow(mCount * 2);
+
+        final int handle = mCount++;
+        mX[handle] = x;
+        mY[handle] = y;
+        mTile[handle] = intern(tile);
+        mName[handle] = intern(name);
+        mKind[handle] = (byte) kind;
+        mFlags[handle] = 0;
+        mHealth[handle] = 0;
+        mShield[handle] = 0;
+        mShieldTurns[handle] = 0;
+        return handle;
+    }
+
+    public int addPlayer(final Player player, final int x, final int y) {
+        return addPlayer(player, player.name, player.tileKey, x, y);
+    }
+
+    int addPlayer(final Player player, final String name, final String tile, final int x, final int y) {
+        final int handle = add(KIND_PLAYER, name, tile, x, y);
+        if (mPlayers.size() == mPlayerHandles.length)
+            mPlayerHandles = Arrays.copyOf(mPlayerHandles, mPlayerHandles.length * 2);
+
+        mPlayerHandles[mPlayers.size()] = handle;
+        mPlayers.add(player);
+        return handle;
+    }
+
+    /**
+     * A copy of the store, its player entities mapped to copies of their
+     * players.
+     */
+    EntityStore copy(final Map<Player, Player> players) {
+        final EntityStore rv = new EntityStore();
+        rv.mCount = mCount;
+        rv.mX = mX.clone();
+        rv.mY = mY.clone();
+        rv.mTile = mTile.clone();
+        rv.mName = mName.clone();
+        rv.mKind = mKind.clone();
+        rv.mFlags = mFlags.clone();
+        rv.mHealth = mHealth.clone();
+        rv.mShield = mShield.clone();
+        rv.mShieldTurns = mShieldTurns.clone();
+        for (final Player player : mPlayers)
+            rv.mPlayers.add(players.get(player));
+        rv.mPlayerHandles = mPlayerHandles.clone();
+        rv.mStrings.addAll(mStrings);
+        rv.mStringIds.putAll(mStringIds);
+        return rv;
+    }
+
+    private void grow(final int capacity) {
+        mX = Arrays.copyOf(mX, capacity);
+        mY = Arrays.copyOf(mY, capacity);
+        mTile = Arrays.copyOf(mTile, capacity);
+        mName = Arrays.copyOf(mName, capacity);
+        mKind = Arrays.copyOf(mKind, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+        mHealth = Arrays.copyOf(mHealth, capacity);
+        mShield = Arrays.copyOf(mShield, capacity);
+        mShieldTurns = Arrays.copyOf(mShieldTurns, capacity);
+    }
+
+    public int intern(final String string) {
+        final Integer id = mStringIds.get(string);
+        if (id != null)
+            return id;
+
+        mStrings.add(string);
+        mStringIds.put(string, mStrings.size() - 1);
+        return mStrings.size() - 1;
+    }
+
+    public String getString(final int id) {
+        return mStrings.get(id);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getX(final int handle) {
+        return mX[handle];
+    }
+
+    public int getY(final int handle) {
+        return mY[handle];
+    }
+
+    // moves go through World, which keeps its occupancy grid in step
+    void setPosition(final int handle, final int x, final int y) {
+        mX[handle] = x;
+        mY[handle] = y;
+    }
+
+    public int getTileId(final int handle) {
+        return mTile[handle];
+    }
+
+    public String getTile(final int handle) {
+        return mStrings.get(mTile[handle]);
+    }
+
+    public int getNameId(final int handle) {
+        return mName[handle];
+    }
+
+    public String getName(final int handle) {
+        return mStrings.get(mName[handle]);
+    }
+
+    public int getKind(final int handle) {
+        return mKind[handle];
+    }
+
+    public int getFlags(final int handle) {
+        return mFlags[handle];
+    }
+
+    // flags go through World, which keeps the dead out of its occupancy grid
+    void setFlags(final int handle, final int flags) {
+        mFlags[handle] = flags;
+    }
+
+    public int getHealth(final int handle) {
+        return mHealth[handle];
+    }
+
+    void setHealth(final int handle, final int health) {
+        mHealth[handle] = health;
+    }
+
+    public int getShield(final int handle) {
+        return mShield[handle];
+    }
+
+    public int getShieldTurns(final int handle) {
+        return mShieldTurns[handle];
+    }
+
+    void setShield(final int handle, final int shield, final int turns) {
+        mShield[handle] = shield;
+        mShieldTurns[handle] = turns;
+    }
+
+    /**
+     * The player of a player entity, or null.
+     */
+    public Player getPlayer(final int handle) {
+        if (mKind[handle] != KIND_PLAYER)
+            return null;
+
+        for (int i = 0; i < mPlayers.size(); i++)
+            if (mPlayerHandles[i] == handle)
+                return mPlayers.get(i);
+        return null;
+    }
+
+    /**
+     * The handle of a player's entity, or -1.
+     */
+    public int findPlayer(final Player player) {
+        final int i = mPlayers.indexOf(player);
+        return i >= 0 ? mPlayerHandles[i] : -1;
+    }
+}
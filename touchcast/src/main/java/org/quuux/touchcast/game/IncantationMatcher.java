@@ -0,0 +1,198 @@
+package org.quuux.touchcast.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches the spells whose gestures end the sequence drawn so far. Gesture
+ * names are interned to ids and the spells compiled into an Aho-Corasick
+ * automaton with a full transition table, so each gesture advances the
+ * state with one lookup and nothing is allocated while matching.
+ *
+ * A state stands for the longest end of the sequence that begins some
+ * spell. getSpell reports the shortest spell ending there, the same spell a
+ * scan of the sequence's endings from the shortest up would find.
+ */
+public class IncantationMatcher {
+
+    public static final int START = 0;
+    public static final int NO_GESTURE = -1;
+
+    public static class Builder {
+        private final List<Spell> mSpells = new ArrayList<Spell>();
+        private final List<String[]> mGestures = new ArrayList<String[]>();
+
+        public Builder add(final Spell spell, final String... gestures) {
+            if (gestures.length == 0)
+                throw new IllegalArgumentException("spell " + spell.getName() + " has no gestures");
+
+            mSpells.add(spell);
+            mGestures.add(gestures);
+            return this;
+        }
+
+        public IncantationMatcher build() {
+            return new IncantationMatcher(mSpells, mGestures);
+        }
+    }
+
+    private final Map<String, Integer> mGestureIds = new HashMap<String, Integer>();
+    private final Spell[] mSpells;
+    private final int mAlphabet;
+    private int mStates;
+
+    private final int[] mNext;     // state * alphabet + gesture
+    private final int[] mDepth;    // gestures matched in each state
+    private final int[] mOutput;   // shortest spell ending in each state, or -1
+    private final int[] mOutputLength;
+    private int mMaxLength;
+
+    private IncantationMatcher(final List<Spell> spells, final List<String[]> gestures) {
+        mSpells = spells.toArray(new Spell[spells.size()]);
+
+        int capacity = 1;
+        for (final String[] incantation : gestures) {
+            capacity += incantation.length;
+            for (final String name : incantation)
+                if (!mGestureIds.containsKey(name))
+                    mGestureIds.put(name, mGestureIds.size());
+        }
+        mAlphabet = mGestureIds.size();
+
+        mNext = new int[capacity * mAlphabet];
+        mDepth = new int[capacity];
+        mOutput = new int[capacity];
+        mOutputLength = new int[capacity];
+        Arrays.fill(mNext, -1);
+        Arrays.fill(mOutput, -1);
+        mStates = 1;
+
+        for (int i = 0; i < mSpells.length; i++)
+            insert(i, gestures.get(i));
+
+        link();
+    }
+
+    private void insert(final int spell, final String[] gestures) {
+        int state = START;
+        for (final String name : gestures) {
+            final int edge = state * mAlphabet + mGestureIds.get(name);
+            if (mNext[edge] < 0) {
+                mDepth[mStates] = mDepth[state] + 1;
+                mNext[edge] = mStates++;
+            }
+            state = mNext[edge];
+        }
+
+        // the first of several spells with the same gestures wins
+        if (mOutput[state] < 0) {
+            mOutput[state] = spell;
+            mOutputLength[state] = gestures.length;
+        }
+        mMaxLength = Math.max(mMaxLength, gestures.length);
+    }
+
+    // fills in the failure transitions breadth first, so the fallback of a
+    // state is complete before the states below it
+    private void link() {
+        final int[] fail = new int[mStates];
+        final int[] queue = new int[mStates];
+        int head = 0, tail = 0;
+
+        for (int c = 0; c < mAlphabet; c++) {
+            final int child = mNext[c];
+            if (child < 0) {
+                mNext[c] = START;
+            } else {
+                fail[child] = START;
+                queue[tail++] = child;
+            }
+        }
+
+        while (head < tail) {
+            final int state = queue[head++];
+
+            // a shorter spell ending here is found first by a scan from
+            // the shortest ending up
+            final int fallback = fail[state];
+            if (mOutput[fallback] >= 0) {
+                mOutput[state] = mOutput[fallback];
+                mOutputLength[state] = mOutputLength[fallback];
+            }
+
+            for (int c = 0; c < mAlphabet; c++) {
+                final int edge = state * mAlphabet + c;
+                final int child = mNext[edge];
+                if (child < 0) {
+                    mNext[edge] = mNext[fallback * mAlphabet + c];
+                } else {
+                    fail[child] = mNext[fallback * mAlphabet + c];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * The id of a gesture, or NO_GESTURE if it is in no spell.
+     */
+    public int getGestureId(final String name) {
+        final Integer id = mGestureIds.get(name);
+        return id != null ? id : NO_GESTURE;
+    }
+
+    public int next(final int state, final int gesture) {
+        return gesture == NO_GESTURE ? START : mNext[state * mAlphabet + gesture];
+    }
+
+    public int next(final int state, final String name) {
+        return next(state, getGestureId(name));
+    }
+
+    /**
+     * The shortest spell cast by the gestures leading to a state, or null.
+     */
+    public Spell getSpell(final int state) {
+        return mOutput[state] >= 0 ? mSpells[mOutput[state]] : null;
+    }
+
+    /**
+     * The number of gestures of the spell cast in a state, or 0.
+     */
+    public int getSpellLength(final int state) {
+        return mOutput[state] >= 0 ? mOutputLength[state] : 0;
+    }
+
+    /**
+     * True if the gestures leading to a state begin some spell, so more
+     * gestures may still cast it.
+     */
+    public boolean isPossible(final int state) {
+        return mDepth[state] > 0;
+    }
+
+    /**
+     * The number of gestures at the end of the sequence that begin a spell.
+     */
+    public int getDepth(final int state) {
+        return mDepth[state];
+    }
+
+    public int getSpellCount() {
+        return mSpells.length;
+    }
+
+    public int getStateCount() {
+        return mStates;
+    }
+
+    /**
+     * The number of gestures of the longest spell.
+     */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+}
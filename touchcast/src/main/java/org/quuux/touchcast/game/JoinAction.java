@@ -0,0 +1,28 @@
+package org.quuux.touchcast.game;
+
+/**
+ * A player taking a seat in the match. The player is copied when the
+ * action is made, so replaying it seats the player as it joined.
+ */
+public class JoinAction implements World.Action {
+    private final String mParticipantId;
+    private final Player mPlayer;
+
+    public JoinAction(final String participantId, final Player player) {
+        mParticipantId = participantId;
+        mPlayer = player.copy();
+    }
+
+    public String getParticipantId() {
+        return mParticipantId;
+    }
+
+    public Player getPlayer() {
+        return mPlayer;
+    }
+
+    @Override
+    public void execute(final World world) {
+        world.seat(mParticipantId, mPlayer.copy());
+    }
+}
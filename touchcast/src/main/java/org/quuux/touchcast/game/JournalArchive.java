@@ -0,0 +1,246 @@
+package org.quuux.touchcast.game;
+
+import org.quuux.touchcast.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Appends the actions checkpointed out of a world's journal to a local file,
+ * so a match can be replayed after the turns no longer carry them. Batches
+ * are written in order on an executor, so checkpointing doesn't wait on
+ * the file. Actions already archived, such as when a turn is read again,
+ * are not written twice.
+ *
+ * Format, big endian: magic and version, then batches as they were folded.
+ * A batch is its length in bytes as an int, then the sequence of its first
+ * action and the count as varints, a string table and the actions, as in
+ * WorldCodec. A batch cut off by a crash mid-append is left out when the
+ * archive is read and cut from the file before the next append. A file
+ * that can't be read is renamed aside and a new archive started.
+ */
+public class JournalArchive implements World.Archive {
+
+    private static final String TAG = Log.buildTag(JournalArchive.class);
+
+    static final int MAGIC = 0x54434a41; // TCJA
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final File mFile;
+    private final Executor mExecutor;
+    private int mFirst = -1;
+    private int mEnd = -1; // the sequence after the last action in the file, -1 until read
+    private long mLength; // bytes of the file up to the end of its last whole batch
+
+    /**
+     * An archive written on executor, which must run its tasks in order.
+     */
+    public JournalArchive(final File file, final Executor executor) {
+        mFile = file;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void archive(final int first, final List<World.Action> actions) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(first, actions);
+            }
+        });
+    }
+
+    private synchronized void write(final int from, final List<World.Action> folded) {
+        if (mEnd < 0 && !open())
+            return;
+
+        // a gap would leave the file unreadable, so start over after it
+        if (mEnd > 0 && from > mEnd) {
+            Log.w(TAG, "journal archive ends at %d, next batch starts at %d", mEnd, from);
+            if (!setAside())
+                return;
+        }
+
+        // only the actions past the end of the file
+        final int skip = mEnd > from ? Math.min(mEnd - from, folded.size()) : 0;
+        if (skip == folded.size())
+            return;
+        final int first = from + skip;
+        final List<World.Action> actions = folded.subList(skip, folded.size());
+
+        final boolean header = !mFile.exists() || mFile.length() == 0;
+
+        DataOutputStream out = null;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream batch = new DataOutputStream(bytes);
+            final WorldCodec.Strings strings = new WorldCodec.Strings();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final DataOutputStream bodyOut = new DataOutputStream(body);
+            for (final World.Action action : actions)
+                WorldCodec.writeAction(bodyOut, strings, action);
+            bodyOut.flush();
+
+            WorldCodec.writeVarint(batch, first);
+            WorldCodec.writeVarint(batch, actions.size());
+            strings.write(batch);
+            body.writeTo(batch);
+            batch.flush();
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            if (header) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+            mEnd = first + actions.size();
+            Log.d(TAG, "archived %d actions from %d", actions.size(), first);
+        } catch (IOException e) {
+            // part of the batch may be in the file, it is cut on the next open
+            Log.e(TAG, "error archiving journal", e);
+            mEnd = -1;
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "error closing journal archive", e);
+            }
+        }
+    }
+
+    // finds the end of the file, cutting off a batch a crash left partly
+    // written. returns false if the file could be neither read nor moved
+    // aside, in which case nothing is written
+    private boolean open() {
+        try {
+            final int count = read().size();
+            mEnd = mFirst >= 0 ? mFirst + count : 0;
+
+            if (mFile.length() > mLength) {
+                Log.w(TAG, "cutting %d bytes of a partial batch from the journal archive", mFile.length() - mLength);
+                final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+                try {
+                    file.setLength(mLength);
+                } finally {
+                    file.close();
+                }
+            }
+
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "error reading journal archive", e);
+        }
+
+        return setAside();
+    }
+
+    // renames an archive that can't be appended to, so the next batch
+    // starts a new one
+    private boolean setAside() {
+        final File aside = new File(mFile.getPath() + "." + System.currentTimeMillis() + ".bad");
+        if (mFile.exists() && !mFile.renameTo(aside)) {
+            Log.e(TAG, "could not move %s aside", mFile);
+            return false;
+        }
+
+        Log.w(TAG, "moved the journal archive aside to %s", aside);
+        mFirst = -1;
+        mEnd = 0;
+        mLength = 0;
+        return true;
+    }
+
+    /**
+     * Reads the archived actions in order, from the sequence of getFirst.
+     * Actions a batch repeats from the one before are read once. A batch
+     * cut off at the end of the file is left out.
+     */
+    public synchronized List<World.Action> read() throws IOException {
+        final List<World.Action> rv = new ArrayList<World.Action>();
+        mFirst = -1;
+        mLength = 0;
+        final long size = mFile.length(); // 0 if there is no file
+        if (size == 0)
+            return rv;
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a journal archive");
+
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported journal archive version " + version);
+
+            long offset = HEADER_SIZE;
+            int next = -1;
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (length < 0)
+                    throw new IOException("bad journal archive batch length " + length);
+                if (length > size - offset - 4)
+                    break; // cut off
+
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                final DataInputStream batch = new DataInputStream(new ByteArrayInputStream(bytes));
+
+                final int first = WorldCodec.readVarint(batch);
+                if (next >= 0 && first > next)
+                    throw new IOException("journal archive skips from " + next + " to " + first);
+                if (mFirst < 0)
+                    mFirst = first;
+
+                final int count = WorldCodec.readVarint(batch);
+                final String[] strings = WorldCodec.readStrings(batch);
+                for (int i = 0; i < count; i++) {
+                    final World.Action action = WorldCodec.readAction(batch, strings);
+                    if (next < 0 || first + i >= next)
+                        rv.add(action);
+                }
+                if (batch.available() != 0)
+                    throw new IOException("journal archive batch has " + batch.available() + " extra bytes");
+
+                next = Math.max(next, first + count);
+                offset += 4 + length;
+            }
+
+            mLength = offset;
+        } finally {
+            in.close();
+        }
+
+        return rv;
+    }
+
+    /**
+     * The sequence of the first action read, or -1.
+     */
+    public int getFirst() {
+        return mFirst;
+    }
+}
@@ -3,6 +3,7 @@ package org.quuux.touchcast.game;
 import java.io.Serializable;
 import java.util.UUID;
 
+// PlayerLoader saves the local player with java serialization
 public class Player implements Serializable {
     public UUID uuid;
     public int version;
@@ -19,6 +20,22 @@ public class Player implements Serializable {
 
     public String tileKey;
 
+    public Player copy() {
+        final Player rv = new Player();
+        rv.uuid = uuid;
+        rv.version = version;
+        rv.name = name;
+        rv.stamina = stamina;
+        rv.timeUnits = timeUnits;
+        rv.experience = experience;
+        rv.deaths = deaths;
+        rv.matches = matches;
+        rv.wins = wins;
+        rv.kills = kills;
+        rv.tileKey = tileKey;
+        return rv;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,41 @@
+package org.quuux.touchcast.game;
+
+/**
+ * The random numbers of a world. SplitMix64, so the whole state is one long
+ * that is saved and sent with the world, and every copy of a world draws the
+ * same numbers in the same order.
+ */
+public class Rng {
+
+    private long mState;
+
+    public Rng(final long seed) {
+        mState = seed;
+    }
+
+    public long nextLong() {
+        long z = (mState += 0x9e3779b97f4a7c15L);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A number from 0 up to but not including bound.
+     */
+    public int nextInt(final int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+
+        // the high bits, scaled, so there is no modulo bias worth speaking of
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    long getState() {
+        return mState;
+    }
+
+    void setState(final long state) {
+        mState = state;
+    }
+}
@@ -1,14 +1,22 @@
 package org.quuux.touchcast.game;
 
-import java.io.Serializable;
-
-public class Spell implements Serializable {
+/**
+ * A spell of the spell book, addressed by its id. Its definition is looked
+ * up in SpellBook.
+ */
+public class Spell {
+    final int mId;
     final String mName;
 
-    public Spell(final String name) {
+    Spell(final int id, final String name) {
+        this.mId = id;
         this.mName = name;
     }
 
+    public int getId() {
+        return mId;
+    }
+
     public String getName() {
         return mName;
     }
@@ -1,24 +1,20 @@
 package org.quuux.touchcast.game;
 
-import android.graphics.Point;
-
-import java.io.Serializable;
-
 /**
 * Created by marc on 5/11/14.
 */
-public class SpellAction implements World.Action, Serializable {
+public class SpellAction implements World.Action {
     private final Spell mSpell;
-    private final World.Entity mTarget;
-    private final World.Entity mActor;
+    private final int mTarget; // entity handles, -1 for none
+    private final int mActor;
 
-    public SpellAction(final World.Entity actor, final Spell spell, final World.Entity target) {
+    public SpellAction(final int actor, final Spell spell, final int target) {
         mActor = actor;
         mSpell = spell;
         mTarget = target;
     }
 
-    public World.Entity getActor() {
+    public int getActor() {
         return mActor;
     }
 
@@ -26,12 +22,49 @@ public class SpellAction implements World.Action, Serializable {
         return mSpell;
     }
 
-    public World.Entity getTarget() {
+    public int getTarget() {
         return mTarget;
     }
 
+    /**
+     * Pays the cost of the spell from the caster's time units and applies
+     * its effect. The spell is looked up by id, so every copy of the world
+     * must have the same spell book. Fizzles if the caster is dead or can't
+     * pay, or the spell is not in the spell book.
+     */
     @Override
-    public void execute() {
+    public void execute(final World world) {
+        final SpellBook book = SpellBook.getDefault();
+        final int id = mSpell.getId();
+        final int entities = world.mEntities.size();
+        if (id < 0 || id >= book.getSpellCount() || mActor < 0 || mActor >= entities || mTarget >= entities)
+            return;
+
+        final Player caster = world.mEntities.getPlayer(mActor);
+        if (caster == null || world.isDead(mActor) || caster.timeUnits < book.getCost(id))
+            return;
+
+        caster.timeUnits -= book.getCost(id);
+
+        final int power = book.getPower(id);
+        switch (book.getEffect(id)) {
+            case DAMAGE:
+                if (mTarget >= 0 && !world.isDead(mTarget))
+                    world.damage(mActor, mTarget, power - world.mRandom.nextInt(power / 4 + 1));
+                break;
+
+            case PROTECT:
+                if (mTarget >= 0 && !world.isDead(mTarget))
+                    world.shield(mTarget, power, book.getDuration(id));
+                break;
+
+            case SUMMON:
+                for (int i = 0; i < power; i++)
+                    world.addNonPlayerEntity();
+                break;
 
+            default:
+                break;
+        }
     }
 }
@@ -0,0 +1,254 @@
+package org.quuux.touchcast.game;
+
+import org.quuux.touchcast.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The spells of the game, read once from a text asset and kept as a table
+ * of arrays indexed by spell id, see Spell.getId. The incantation matcher
+ * is compiled from the same table, so a recognized cast resolves to its
+ * cost, range and effect with array lookups.
+ *
+ * Format, one spell per line after a version line, # starts a comment:
+ *
+ *   version 1
+ *   name: gesture, gesture, ... | cost=N range=N effect=E power=N duration=N
+ *
+ * Every key is optional and defaults to 0, effect to NONE.
+ */
+public class SpellBook {
+
+    private static final String TAG = Log.buildTag(SpellBook.class);
+
+    public static final String ASSET = "spells/spellbook.txt";
+
+    static final int VERSION = 1;
+
+    // the numeric keys of a spell, in the order they are parsed into
+    static final int STAT_COST = 0;
+    static final int STAT_RANGE = 1;
+    static final int STAT_POWER = 2;
+    static final int STAT_DURATION = 3;
+    static final String[] STAT_KEYS = {"cost", "range", "power", "duration"};
+
+    public enum Effect {
+        NONE,
+        DAMAGE,  // power is the hit points taken
+        PROTECT, // power is the hit points shielded
+        SUMMON   // power is the number of entities summoned
+    }
+
+    private static SpellBook sDefault;
+
+    private final int mVersion;
+    private final Spell[] mSpells;
+    private final String[][] mGestures;
+    private final int[] mCost;
+    private final int[] mRange;
+    private final Effect[] mEffect;
+    private final int[] mPower;
+    private final int[] mDuration;
+    private final IncantationMatcher mMatcher;
+
+    private SpellBook(final int version, final List<String> names, final List<String[]> gestures, final List<int[]> stats,
+                      final List<Effect> effects) {
+        final int n = names.size();
+        mVersion = version;
+        mSpells = new Spell[n];
+        mGestures = gestures.toArray(new String[n][]);
+        mCost = new int[n];
+        mRange = new int[n];
+        mEffect = effects.toArray(new Effect[n]);
+        mPower = new int[n];
+        mDuration = new int[n];
+
+        final IncantationMatcher.Builder matcher = new IncantationMatcher.Builder();
+        for (int i = 0; i < n; i++) {
+            mSpells[i] = new Spell(i, names.get(i));
+            mCost[i] = stats.get(i)[STAT_COST];
+            mRange[i] = stats.get(i)[STAT_RANGE];
+            mPower[i] = stats.get(i)[STAT_POWER];
+            mDuration[i] = stats.get(i)[STAT_DURATION];
+            matcher.add(mSpells[i], mGestures[i]);
+        }
+        mMatcher = matcher.build();
+    }
+
+    /**
+     * The book read at startup, or an empty one if none was set.
+     */
+    public static synchronized SpellBook getDefault() {
+        if (sDefault == null)
+            sDefault = new SpellBook(VERSION, new ArrayList<String>(), new ArrayList<String[]>(), new ArrayList<int[]>(),
+                    new ArrayList<Effect>());
+
+        return sDefault;
+    }
+
+    public static synchronized void setDefault(final SpellBook book) {
+        sDefault = book;
+    }
+
+    public static SpellBook read(final InputStream stream) throws IOException {
+        final long start = System.nanoTime();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+
+        final List<String> names = new ArrayList<String>();
+        final List<String[]> gestures = new ArrayList<String[]>();
+        final List<int[]> stats = new ArrayList<int[]>();
+        final List<Effect> effects = new ArrayList<Effect>();
+        final Set<String> defined = new HashSet<String>();
+
+        int version = -1;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+
+            final int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.length() == 0)
+                continue;
+
+            if (version < 0) {
+                if (!line.startsWith("version "))
+                    throw new IOException("spell book must start with a version, line " + lineNumber);
+                version = parseInt(line.substring("version ".length()).trim(), lineNumber);
+                if (version != VERSION)
+                    throw new IOException("unsupported spell book version " + version);
+                continue;
+            }
+
+            final int colon = line.indexOf(':');
+            if (colon <= 0)
+                throw new IOException("expected name: gestures on line " + lineNumber);
+
+            final String name = line.substring(0, colon).trim();
+            if (!defined.add(name))
+                throw new IOException("spell " + name + " defined twice, line " + lineNumber);
+
+            final int bar = line.indexOf('|', colon);
+            final String[] incantation = line.substring(colon + 1, bar >= 0 ? bar : line.length()).split(",");
+            for (int i = 0; i < incantation.length; i++) {
+                incantation[i] = incantation[i].trim();
+                if (incantation[i].length() == 0)
+                    throw new IOException("spell " + name + " has an empty gesture, line " + lineNumber);
+            }
+
+            final int[] values = new int[STAT_KEYS.length];
+            Effect effect = Effect.NONE;
+            final String keys = bar >= 0 ? line.substring(bar + 1).trim() : "";
+            if (keys.length() > 0) {
+                for (final String pair : keys.split("\\s+")) {
+                    final int eq = pair.indexOf('=');
+                    if (eq <= 0)
+                        throw new IOException("expected key=value on line " + lineNumber);
+
+                    final String key = pair.substring(0, eq);
+                    final String value = pair.substring(eq + 1);
+                    if (key.equals("effect")) {
+                        try {
+                            effect = Effect.valueOf(value.toUpperCase(Locale.US));
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("unknown effect " + value + " on line " + lineNumber);
+                        }
+                        continue;
+                    }
+
+                    final int stat = indexOf(STAT_KEYS, key);
+                    if (stat < 0)
+                        throw new IOException("unknown key " + key + " on line " + lineNumber);
+                    values[stat] = parseInt(value, lineNumber);
+                }
+            }
+
+            names.add(name);
+            gestures.add(incantation);
+            stats.add(values);
+            effects.add(effect);
+        }
+
+        if (version < 0)
+            throw new IOException("spell book is empty");
+
+        final SpellBook rv = new SpellBook(version, names, gestures, stats, effects);
+        Log.d(TAG, "compiled %d spells into %d states in %.2fms", names.size(), rv.mMatcher.getStateCount(),
+                (System.nanoTime() - start) / 1e6);
+        return rv;
+    }
+
+    private static int indexOf(final String[] keys, final String key) {
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i].equals(key))
+                return i;
+        return -1;
+    }
+
+    private static int parseInt(final String value, final int lineNumber) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("expected a number on line " + lineNumber + ", got " + value);
+        }
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getSpellCount() {
+        return mSpells.length;
+    }
+
+    public Spell getSpell(final int id) {
+        return mSpells[id];
+    }
+
+    public IncantationMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    public String[] getGestures(final int id) {
+        return mGestures[id].clone();
+    }
+
+    /**
+     * Time units the caster spends on a cast, see Player.timeUnits.
+     */
+    public int getCost(final int id) {
+        return mCost[id];
+    }
+
+    /**
+     * Tiles from the caster to the target, 0 for spells on the caster.
+     */
+    public int getRange(final int id) {
+        return mRange[id];
+    }
+
+    public Effect getEffect(final int id) {
+        return mEffect[id];
+    }
+
+    public int getPower(final int id) {
+        return mPower[id];
+    }
+
+    /**
+     * Turns the effect lasts, 0 for an instant effect.
+     */
+    public int getDuration(final int id) {
+        return mDuration[id];
+    }
+}
@@ -1,8 +1,6 @@
 package org.quuux.touchcast.game;
 
-import java.io.Serializable;
-
-public class Tile implements Serializable {
+public class Tile {
     public String name;
 
     public boolean walkable = true;
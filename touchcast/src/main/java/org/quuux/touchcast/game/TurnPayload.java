@@ -0,0 +1,610 @@
+package org.quuux.touchcast.game;
+
+import org.quuux.touchcast.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The match data sent with a turn. Most turns append an action or two to
+ * the world, so rather than the whole world a turn carries the hash of the
+ * world it started from and what changed since: players, seats, entities
+ * and actions. The receiver applies that to the copy it saved at the end of
+ * its own last turn, see MatchFragment.Listener.loadMatch.
+ *
+ * A keyframe, the whole world, is sent every KEYFRAME_INTERVAL turns, and
+ * whenever the next participant's saved copy is not the world the turn
+ * started from. Each payload carries the hash of the copy every participant
+ * saved, so the sender can tell. Only in a two player match is the next
+ * participant's copy the world the turn started from, so matches of more
+ * players send keyframes every turn.
+ *
+ * A delta is also checked by replaying its actions on a copy of the saved
+ * world, see World.verify. A receiver that can't read a delta, such as one
+ * whose saved copy is lost or that resolves the turn differently, sends
+ * the turn back to its sender as a keyframe request, see requestKeyframe.
+ * The sender answers with its saved copy as a keyframe.
+ *
+ * Format, big endian: magic, version and type as varints, the keyframe
+ * age, the saved hashes, then either the encoded world, the hashes of the
+ * base and the result with a string table and the changes, or for a
+ * request the hash of the world asked for and who asks. Match data written
+ * before this format is a bare world, read as a keyframe.
+ */
+public class TurnPayload {
+
+    private static final String TAG = Log.buildTag(TurnPayload.class);
+
+    static final int MAGIC = 0x54435450; // TCTP
+    static final int VERSION = 3;
+
+    static final int TYPE_KEYFRAME = 0;
+    static final int TYPE_DELTA = 1;
+    static final int TYPE_REQUEST = 2;
+    private static final String[] TYPES = {"keyframe", "delta", "keyframe request"};
+
+    public static final int KEYFRAME_INTERVAL = 8;
+
+    private final World mWorld;
+    private final World mSavedWorld; // the saved copy the turn was read onto
+    private final World mBase; // the world as received, the base of the next delta
+    private final long mHash;
+    private final int mAge;
+    private final Map<String, Long> mSaved;
+    private final String mRequester;
+    private byte[] mSnapshot; // the world as written, to save
+
+    /**
+     * The payload of a new match, with nothing to build on.
+     */
+    public TurnPayload() {
+        this(null, null, null, 0, 0, new LinkedHashMap<String, Long>(), null);
+    }
+
+    private TurnPayload(final World world, final World savedWorld, final World base, final long hash, final int age,
+                        final Map<String, Long> saved, final String requester) {
+        mWorld = world;
+        mSavedWorld = savedWorld;
+        mBase = base;
+        mHash = hash;
+        mAge = age;
+        mSaved = saved;
+        mRequester = requester;
+    }
+
+    /**
+     * The world of a turn, rebuilt from saved, the copy encoded at the end
+     * of this participant's last turn, if the turn is a delta. Throws if it
+     * is a delta on another world. Actions the turn checkpointed out of the
+     * saved copy's journal go to the archive, if there is one.
+     */
+    public static TurnPayload read(final byte[] data, final byte[] saved, final World.Archive archive)
+            throws IOException {
+        final long start = System.nanoTime();
+        final World last = readSaved(saved, archive);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 4 || in.readInt() != MAGIC) {
+            final World world = World.unserialize(data);
+            if (world == null)
+                throw new IOException("not a turn or a world");
+            return new TurnPayload(world, last, world.copy(), WorldCodec.hash(WorldCodec.encode(world)), 0,
+                    new LinkedHashMap<String, Long>(), null);
+        }
+
+        final int version = WorldCodec.readVarint(in);
+        if (version < 1 || version > VERSION)
+            throw new IOException("unsupported turn version " + version);
+
+        final int type = WorldCodec.readVarint(in);
+        final int age = WorldCodec.readVarint(in);
+        final Map<String, Long> hashes = readHashes(in);
+
+        final TurnPayload rv;
+        if (type == TYPE_KEYFRAME) {
+            final byte[] snapshot = new byte[WorldCodec.count(in, "world byte")];
+            in.readFully(snapshot);
+            final World world = WorldCodec.decode(snapshot);
+
+            // the actions checkpointed since the saved copy go to its archive
+            if (last != null)
+                last.checkpoint(Math.min(world.mCheckpoint, last.getJournalEnd()));
+            rv = new TurnPayload(world, last, world.copy(), WorldCodec.hash(snapshot), age, hashes, null);
+        } else if (type == TYPE_DELTA) {
+            final long base = in.readLong();
+            final long result = in.readLong();
+            if (last == null)
+                throw new IOException("no saved world to apply the turn to");
+            if (WorldCodec.hash(saved) != base)
+                throw new IOException("saved world is not the base of the turn");
+
+            // applied to a copy, so a bad delta leaves the saved world alone
+            final World world = last.copy();
+            world.setArchive(archive);
+            applyDelta(in, version, world);
+            final byte[] snapshot = WorldCodec.encode(world);
+            if (WorldCodec.hash(snapshot) != result)
+                throw new IOException("turn did not rebuild the sent world");
+
+            // the sender's actions must resolve here as they did there
+            if (!World.canVerify(last, world))
+                Log.w(TAG, "turn checkpointed past the saved journal, not replayed");
+            else if (!World.verify(last.copy(), world, snapshot))
+                throw new IOException("turn does not replay from the saved world");
+            rv = new TurnPayload(world, last, world.copy(), result, age, hashes, null);
+        } else if (type == TYPE_REQUEST) {
+            final long result = in.readLong();
+            final String requester = in.readUTF();
+            if (last == null || WorldCodec.hash(saved) != result)
+                throw new IOException("saved world is not the one " + requester + " asks for");
+            rv = new TurnPayload(last, null, null, result, 0, hashes, requester);
+        } else {
+            throw new IOException("unknown turn type " + type);
+        }
+
+        Log.d(TAG, "read %s of %d bytes in %.2fms", TYPES[type], data.length,
+                (System.nanoTime() - start) / 1e6);
+        return rv;
+    }
+
+    // the saved copy, or null if there is none or it doesn't decode
+    private static World readSaved(final byte[] saved, final World.Archive archive) {
+        if (saved == null)
+            return null;
+
+        final World rv = World.unserialize(saved);
+        if (rv != null)
+            rv.setArchive(archive);
+        return rv;
+    }
+
+    /**
+     * True if a payload is a delta rather than a keyframe or a bare world.
+     */
+    public static boolean isDelta(final byte[] data) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            return in.readInt() == MAGIC && WorldCodec.readVarint(in) >= 1 && WorldCodec.readVarint(in) == TYPE_DELTA;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The payload asking the sender of a delta this participant can't read
+     * to send its world as a keyframe instead. Sent back to the sender as a
+     * turn, which it reads with a getRequester.
+     */
+    public static byte[] requestKeyframe(final byte[] data, final String participantId) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 4 || in.readInt() != MAGIC)
+            throw new IOException("not a turn");
+
+        final int version = WorldCodec.readVarint(in);
+        if (version < 1 || version > VERSION)
+            throw new IOException("unsupported turn version " + version);
+        if (WorldCodec.readVarint(in) != TYPE_DELTA)
+            throw new IOException("only a delta can be asked for again");
+
+        WorldCodec.readVarint(in);
+        final Map<String, Long> hashes = readHashes(in);
+        in.readLong();
+        final long result = in.readLong();
+
+        // the copy this participant saved is no base for a delta
+        hashes.remove(participantId);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        WorldCodec.writeVarint(out, VERSION);
+        WorldCodec.writeVarint(out, TYPE_REQUEST);
+        WorldCodec.writeVarint(out, 0);
+        writeHashes(out, hashes);
+        out.writeLong(result);
+        out.writeUTF(participantId);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The world to play the turn on.
+     */
+    public World getWorld() {
+        return mWorld;
+    }
+
+    /**
+     * The saved copy the turn was read onto, or null.
+     */
+    public World getSavedWorld() {
+        return mSavedWorld;
+    }
+
+    /**
+     * The participant asking for getWorld as a keyframe, or null if this is
+     * a turn to play. Answered by writing getWorld to it unchanged.
+     */
+    public String getRequester() {
+        return mRequester;
+    }
+
+    /**
+     * Turns since the last keyframe.
+     */
+    public int getAge() {
+        return mAge;
+    }
+
+    /**
+     * The payload of the turn played on getWorld by a participant, to be
+     * read next by another. The participant saves getSnapshot.
+     */
+    public byte[] write(final World world, final String participantId, final String nextParticipantId)
+            throws IOException {
+        final long start = System.nanoTime();
+        final byte[] snapshot = WorldCodec.encode(world);
+        final long result = WorldCodec.hash(snapshot);
+
+        final Long nextSaved = mSaved.get(nextParticipantId);
+        final boolean keyframe = mBase == null || mAge + 1 >= KEYFRAME_INTERVAL || nextSaved == null
+                || nextSaved != mHash || !canDelta(mBase, world);
+
+        final Map<String, Long> saved = new LinkedHashMap<String, Long>(mSaved);
+        saved.put(participantId, result);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        WorldCodec.writeVarint(out, VERSION);
+        WorldCodec.writeVarint(out, keyframe ? TYPE_KEYFRAME : TYPE_DELTA);
+        WorldCodec.writeVarint(out, keyframe ? 0 : mAge + 1);
+        writeHashes(out, saved);
+
+        if (keyframe) {
+            WorldCodec.writeVarint(out, snapshot.length);
+            out.write(snapshot);
+        } else {
+            out.writeLong(mHash);
+            out.writeLong(result);
+            writeDelta(out, mBase, world);
+        }
+        out.flush();
+        mSnapshot = snapshot;
+
+        final byte[] rv = bytes.toByteArray();
+        Log.d(TAG, "wrote %s of %d bytes, world is %d, in %.2fms", keyframe ? "keyframe" : "delta", rv.length,
+                snapshot.length, (System.nanoTime() - start) / 1e6);
+        return rv;
+    }
+
+    /**
+     * The world as encoded by the last write, to be saved and passed to
+     * read with the next turn.
+     */
+    public byte[] getSnapshot() {
+        return mSnapshot;
+    }
+
+    private static Map<String, Long> readHashes(final DataInputStream in) throws IOException {
+        final Map<String, Long> rv = new LinkedHashMap<String, Long>();
+        final int count = WorldCodec.count(in, "hash");
+        for (int i = 0; i < count; i++)
+            rv.put(in.readUTF(), in.readLong());
+        return rv;
+    }
+
+    private static void writeHashes(final DataOutputStream out, final Map<String, Long> hashes) throws IOException {
+        WorldCodec.writeVarint(out, hashes.size());
+        for (final Map.Entry<String, Long> entry : hashes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    // a delta can't remove entities, change the map or move the
+    // checkpoint back
+    private static boolean canDelta(final World base, final World world) {
+        return world.mEntities.size() >= base.mEntities.size() && world.mCheckpoint >= base.mCheckpoint
+                && sameMap(base.mMap, world.mMap);
+    }
+
+    // the changes are written after their string table, as in WorldCodec
+    private static void writeDelta(final DataOutputStream out, final World base, final World world) throws IOException {
+        final WorldCodec.Strings strings = new WorldCodec.Strings();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bytes);
+
+        final Map<UUID, Player> basePlayers = players(base);
+        final List<Player> changed = new ArrayList<Player>();
+        for (final Player player : players(world).values()) {
+            final Player before = basePlayers.get(player.uuid);
+            if (before == null || !samePlayer(before, player))
+                changed.add(player);
+        }
+        WorldCodec.writeVarint(body, changed.size());
+        for (final Player player : changed)
+            WorldCodec.writePlayer(body, strings, player);
+
+        final boolean seats = !sameSeats(base.mPlayers, world.mPlayers);
+        body.writeBoolean(seats);
+        if (seats) {
+            WorldCodec.writeVarint(body, world.mPlayers.size());
+            for (final Map.Entry<String, Player> seat : world.mPlayers.entrySet()) {
+                WorldCodec.writeVarint(body, strings.id(seat.getKey()));
+                writeUuid(body, seat.getValue().uuid);
+            }
+        }
+
+        final boolean order = !base.mParticipantOrder.equals(world.mParticipantOrder);
+        body.writeBoolean(order);
+        if (order) {
+            WorldCodec.writeVarint(body, world.mParticipantOrder.size());
+            for (final String participant : world.mParticipantOrder)
+                WorldCodec.writeVarint(body, strings.id(participant));
+        }
+
+        // handles are never reused, so entities are either changed or new
+        final EntityStore before = base.mEntities, after = world.mEntities;
+        int moved = 0;
+        for (int handle = 0; handle < before.size(); handle++)
+            if (changed(before, after, handle))
+                moved++;
+        WorldCodec.writeVarint(body, moved);
+        for (int handle = 0; handle < before.size(); handle++) {
+            if (changed(before, after, handle)) {
+                WorldCodec.writeVarint(body, handle);
+                WorldCodec.writeVarint(body, WorldCodec.zigzag(after.getX(handle)));
+                WorldCodec.writeVarint(body, WorldCodec.zigzag(after.getY(handle)));
+                WorldCodec.writeVarint(body, after.getFlags(handle));
+                writeVitals(body, after, handle);
+            }
+        }
+
+        WorldCodec.writeVarint(body, after.size() - before.size());
+        for (int handle = before.size(); handle < after.size(); handle++) {
+            final int kind = after.getKind(handle);
+            body.writeByte(kind);
+            WorldCodec.writeVarint(body, strings.id(after.getName(handle)));
+            WorldCodec.writeVarint(body, strings.id(after.getTile(handle)));
+            WorldCodec.writeVarint(body, WorldCodec.zigzag(after.getX(handle)));
+            WorldCodec.writeVarint(body, WorldCodec.zigzag(after.getY(handle)));
+            WorldCodec.writeVarint(body, after.getFlags(handle));
+            if (kind == EntityStore.KIND_PLAYER)
+                writeUuid(body, after.getPlayer(handle).uuid);
+            writeVitals(body, after, handle);
+        }
+
+        // the journal from the new checkpoint is kept up to the first
+        // action that differs
+        final int skip = Math.min(world.mCheckpoint - base.mCheckpoint, base.mActionJournal.size());
+        final byte[][] baseActions = encodeActions(base.mActionJournal.subList(skip, base.mActionJournal.size()));
+        final byte[][] actions = encodeActions(world.mActionJournal);
+        int kept = 0;
+        while (kept < baseActions.length && kept < actions.length && Arrays.equals(baseActions[kept], actions[kept]))
+            kept++;
+        WorldCodec.writeVarint(body, world.mCheckpoint);
+        WorldCodec.writeVarint(body, kept);
+        WorldCodec.writeVarint(body, actions.length - kept);
+        for (int i = kept; i < actions.length; i++)
+            WorldCodec.writeAction(body, strings, world.mActionJournal.get(i));
+
+        body.writeLong(world.mRandom.getState());
+        WorldCodec.writeVarint(body, world.mTurn);
+        WorldCodec.writeVarint(body, world.mResolved);
+        body.flush();
+
+        strings.write(out);
+        bytes.writeTo(out);
+    }
+
+    private static void applyDelta(final DataInputStream in, final int version, final World world)
+            throws IOException {
+        final String[] strings = WorldCodec.readStrings(in);
+
+        final Map<UUID, Player> players = players(world);
+        final int changed = WorldCodec.count(in, "player");
+        for (int i = 0; i < changed; i++) {
+            final Player player = WorldCodec.readPlayer(in, strings);
+            final Player existing = players.get(player.uuid);
+            if (existing != null)
+                copyPlayer(player, existing);
+            else
+                players.put(player.uuid, player);
+        }
+
+        if (in.readBoolean()) {
+            world.mPlayers.clear();
+            final int seats = WorldCodec.count(in, "seat");
+            for (int i = 0; i < seats; i++) {
+                final String participant = WorldCodec.string(strings, WorldCodec.readVarint(in));
+                world.mPlayers.put(participant, player(players, readUuid(in)));
+            }
+        }
+
+        if (in.readBoolean()) {
+            final List<String> order = new ArrayList<String>();
+            final int count = WorldCodec.count(in, "participant");
+            for (int i = 0; i < count; i++)
+                order.add(WorldCodec.string(strings, WorldCodec.readVarint(in)));
+            world.setOrder(order);
+        }
+
+        final EntityStore entities = world.mEntities;
+        final int moved = WorldCodec.count(in, "entity");
+        for (int i = 0; i < moved; i++) {
+            final int handle = WorldCodec.index(in, entities.size(), "entity");
+
+            world.moveEntity(handle, WorldCodec.unzigzag(WorldCodec.readVarint(in)),
+                    WorldCodec.unzigzag(WorldCodec.readVarint(in)));
+            world.setFlags(handle, WorldCodec.readVarint(in));
+            if (version >= 3)
+                readVitals(in, entities, handle);
+        }
+
+        final int added = WorldCodec.count(in, "entity");
+        for (int i = 0; i < added; i++) {
+            final int kind = in.readUnsignedByte();
+            if (kind != EntityStore.KIND_PLAYER && kind != EntityStore.KIND_NPC)
+                throw new IOException("bad entity kind " + kind);
+            final String name = WorldCodec.string(strings, WorldCodec.readVarint(in));
+            final String tile = WorldCodec.string(strings, WorldCodec.readVarint(in));
+            final int x = WorldCodec.unzigzag(WorldCodec.readVarint(in));
+            final int y = WorldCodec.unzigzag(WorldCodec.readVarint(in));
+            final int flags = WorldCodec.readVarint(in);
+            final Player player = kind == EntityStore.KIND_PLAYER ? player(players, readUuid(in)) : null;
+            final int handle = world.addEntity(kind, name, tile, x, y, player);
+            world.setFlags(handle, flags);
+            if (version >= 3)
+                readVitals(in, entities, handle);
+        }
+
+        // actions folded past the end of the saved journal were never
+        // seen here, so there is nothing of them to archive
+        if (version >= 2) {
+            final int checkpoint = WorldCodec.readVarint(in);
+            if (checkpoint < world.mCheckpoint)
+                throw new IOException("checkpoint moved back");
+            if (checkpoint >= world.getJournalEnd()) {
+                world.mActionJournal.clear();
+                world.mCheckpoint = checkpoint;
+            } else {
+                world.checkpoint(checkpoint);
+            }
+        }
+
+        final int kept = WorldCodec.readVarint(in);
+        if (kept < 0 || kept > world.mActionJournal.size())
+            throw new IOException("journal shorter than the turn's base");
+        world.mActionJournal.subList(kept, world.mActionJournal.size()).clear();
+        final int actions = WorldCodec.count(in, "action");
+        for (int i = 0; i < actions; i++)
+            world.mActionJournal.add(WorldCodec.readAction(in, strings));
+
+        if (version >= 3) {
+            world.mRandom.setState(in.readLong());
+            world.mTurn = WorldCodec.readVarint(in);
+            world.mResolved = WorldCodec.readVarint(in);
+        }
+    }
+
+    // what spells change on an entity, as in WorldCodec
+    private static void writeVitals(final DataOutputStream out, final EntityStore entities, final int handle)
+            throws IOException {
+        WorldCodec.writeVarint(out, WorldCodec.zigzag(entities.getHealth(handle)));
+        WorldCodec.writeVarint(out, entities.getShield(handle));
+        WorldCodec.writeVarint(out, entities.getShieldTurns(handle));
+    }
+
+    private static void readVitals(final DataInputStream in, final EntityStore entities, final int handle)
+            throws IOException {
+        entities.setHealth(handle, WorldCodec.unzigzag(WorldCodec.readVarint(in)));
+        entities.setShield(handle, WorldCodec.readVarint(in), WorldCodec.readVarint(in));
+    }
+
+    // the players of a world by uuid, seated or with an entity
+    private static Map<UUID, Player> players(final World world) {
+        final Map<UUID, Player> rv = new LinkedHashMap<UUID, Player>();
+        for (final Player player : world.mPlayers.values())
+            rv.put(player.uuid, player);
+
+        final EntityStore entities = world.mEntities;
+        for (int handle = 0; handle < entities.size(); handle++) {
+            final Player player = entities.getPlayer(handle);
+            if (player != null && !rv.containsKey(player.uuid))
+                rv.put(player.uuid, player);
+        }
+        return rv;
+    }
+
+    private static Player player(final Map<UUID, Player> players, final UUID uuid) throws IOException {
+        final Player rv = players.get(uuid);
+        if (rv == null)
+            throw new IOException("unknown player " + uuid);
+        return rv;
+    }
+
+    private static boolean samePlayer(final Player a, final Player b) {
+        return a.version == b.version && equal(a.name, b.name) && equal(a.tileKey, b.tileKey)
+                && a.stamina == b.stamina && a.timeUnits == b.timeUnits && a.experience == b.experience
+                && a.deaths == b.deaths && a.matches == b.matches && a.wins == b.wins && a.kills == b.kills;
+    }
+
+    private static void copyPlayer(final Player from, final Player to) {
+        to.version = from.version;
+        to.name = from.name;
+        to.tileKey = from.tileKey;
+        to.stamina = from.stamina;
+        to.timeUnits = from.timeUnits;
+        to.experience = from.experience;
+        to.deaths = from.deaths;
+        to.matches = from.matches;
+        to.wins = from.wins;
+        to.kills = from.kills;
+    }
+
+    private static boolean sameSeats(final Map<String, Player> a, final Map<String, Player> b) {
+        if (a.size() != b.size())
+            return false;
+
+        for (final Map.Entry<String, Player> seat : b.entrySet()) {
+            final Player player = a.get(seat.getKey());
+            if (player == null || !player.uuid.equals(seat.getValue().uuid))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean sameMap(final WorldMap a, final WorldMap b) {
+        if (!Arrays.deepEquals(a.mMap, b.mMap) || a.mTiles.length != b.mTiles.length)
+            return false;
+
+        for (int i = 0; i < a.mTiles.length; i++)
+            if (!equal(a.mTiles[i].name, b.mTiles[i].name) || a.mTiles[i].walkable != b.mTiles[i].walkable
+                    || a.mTiles[i].damaging != b.mTiles[i].damaging)
+                return false;
+        return true;
+    }
+
+    private static boolean changed(final EntityStore before, final EntityStore after, final int handle) {
+        return before.getX(handle) != after.getX(handle) || before.getY(handle) != after.getY(handle)
+                || before.getFlags(handle) != after.getFlags(handle) || before.getHealth(handle) != after.getHealth(handle)
+                || before.getShield(handle) != after.getShield(handle)
+                || before.getShieldTurns(handle) != after.getShieldTurns(handle);
+    }
+
+    private static byte[][] encodeActions(final List<World.Action> actions) throws IOException {
+        final WorldCodec.Strings strings = new WorldCodec.Strings();
+        final byte[][] rv = new byte[actions.size()][];
+        for (int i = 0; i < rv.length; i++) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            WorldCodec.writeAction(out, strings, actions.get(i));
+            out.flush();
+            rv[i] = bytes.toByteArray();
+        }
+        return rv;
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void writeUuid(final DataOutputStream out, final UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(final DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
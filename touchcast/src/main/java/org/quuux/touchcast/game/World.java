@@ -3,22 +3,17 @@ package org.quuux.touchcast.game;
 import org.quuux.touchcast.Log;
 import org.quuux.touchcast.util.MapLoader;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
-public class World implements Serializable {
+public class World {
 
     private static final String TAG = Log.buildTag(World.class);
 
@@ -43,113 +38,165 @@ public class World implements Serializable {
     }
 
     public interface Entity {
+        int getHandle();
         int getX();
         int getY();
         void setX(int x);
         void setY(int y);
+        void setPosition(int x, int y);
         String getTile();
         String getName();
     }
 
-    public abstract class BaseEntity implements Entity, Serializable {
+    /**
+     * A view of an entity in the store of a world, made on demand. Views of
+     * the same entity are equal.
+     */
+    public static abstract class BaseEntity implements Entity {
 
-        int x,y;
+        final World mWorld;
+        final int mHandle;
+
+        BaseEntity(final World world, final int handle) {
+            mWorld = world;
+            mHandle = handle;
+        }
+
+        @Override
+        public int getHandle() {
+            return mHandle;
+        }
 
         @Override
         public int getX() {
-            return x;
+            return mWorld.mEntities.getX(mHandle);
         }
 
         @Override
         public int getY() {
-            return y;
+            return mWorld.mEntities.getY(mHandle);
         }
 
         @Override
         public void setX(final int x) {
-            this.x = x;
+            setPosition(x, getY());
         }
 
         @Override
         public void setY(final int y) {
-            this.y = y;
+            setPosition(getX(), y);
         }
 
-    }
-
-    public class PlayerEntity extends BaseEntity {
-
-        final Player mPlayer;
-
-        public PlayerEntity(final Player player) {
-            mPlayer = player;
+        @Override
+        public void setPosition(final int x, final int y) {
+            mWorld.moveEntity(mHandle, x, y);
         }
 
         @Override
         public String getTile() {
-            return mPlayer.tileKey;
+            return mWorld.mEntities.getTile(mHandle);
         }
 
         @Override
         public String getName() {
-            return mPlayer.name;
+            return mWorld.mEntities.getName(mHandle);
         }
 
-        public Player getPlayer() {
-            return mPlayer;
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof BaseEntity))
+                return false;
+
+            final BaseEntity other = (BaseEntity) o;
+            return other.mWorld == mWorld && other.mHandle == mHandle;
         }
-    }
 
-    public class NonPlayerEntity extends BaseEntity {
+        @Override
+        public int hashCode() {
+            return mHandle;
+        }
+    }
 
-        private final String mTileKey;
-        private final String mName;
+    public static class PlayerEntity extends BaseEntity {
 
-        public NonPlayerEntity(final String name, final String tileKey) {
-            mName = name;
-            mTileKey = tileKey;
+        PlayerEntity(final World world, final int handle) {
+            super(world, handle);
         }
 
-        @Override
-        public String getTile() {
-            return mTileKey;
+        public Player getPlayer() {
+            return mWorld.mEntities.getPlayer(mHandle);
         }
+    }
 
-        @Override
-        public String getName() {
-            return mName;
+    public static class NonPlayerEntity extends BaseEntity {
+
+        NonPlayerEntity(final World world, final int handle) {
+            super(world, handle);
         }
     }
 
+    /**
+     * Something done in the world. Actions are journaled and then executed
+     * in journal order, and only change the world through it and its Rng,
+     * so replaying the same actions on the same world resolves the same.
+     */
     public interface Action {
-        public void execute();
+        public void execute(World world);
     }
 
-    Map<String, Player> mPlayers = new HashMap<String, Player>();
+    /**
+     * Keeps the actions folded out of the journal, such as for a replay.
+     */
+    public interface Archive {
+        public void archive(int first, List<Action> actions);
+    }
+
+    // the journal keeps between JOURNAL_TAIL and twice as many actions
+    public static final int JOURNAL_TAIL = 32;
+
+    // a player's stamina and time units on joining, and each turn's time units
+    public static final int STAMINA = 20;
+    public static final int TIME_UNITS = 10;
+    public static final int NPC_HEALTH = 10;
+
+    Map<String, Player> mPlayers = new LinkedHashMap<String, Player>();
     List<String> mParticipantOrder = new ArrayList<String>();
-    List<Entity> mEntities = new LinkedList<Entity>();
-    Map<Player, Entity> mPlayerEntities = new HashMap<Player, Entity>();
+    EntityStore mEntities = new EntityStore();
     List<Action> mActionJournal = new ArrayList<Action>();
+    int mCheckpoint; // actions folded out of the journal, the sequence of its first
+    int mResolved; // the sequence of the next action to execute
+    int mTurn;
+
+    Archive mArchive;
 
     WorldMap mMap;
-    Random mRandom = new Random();
+    Rng mRandom = new Rng(0);
+
+    // entity handle + 1 for each cell, 0 if free. entities moved onto an
+    // occupied cell are stacked behind the one holding it, linked by handle
+    // + 1, so the next in line takes the cell over without a scan
+    int[] mOccupancy;
+    int[] mStackNext;
+    int[] mStackPrev;
+
+    // a fenwick tree of free cells, 1 for each, so the k-th free cell in
+    // cell order is found in log time. placement draws by that order, which
+    // is the same however the world got to its cells
+    int[] mFree;
+    int mFreeCount;
 
     protected World() {
     }
 
+    /**
+     * Encodes the world, see WorldCodec.
+     */
     public byte[] serialize() {
 
         try {
-            final ByteArrayOutputStream out = new ByteArrayOutputStream();
-            final GZIPOutputStream zout = new GZIPOutputStream(out);
-            final ObjectOutputStream objectOut = new ObjectOutputStream(zout);
-            objectOut.writeObject(this);
-            objectOut.close();
-            zout.finish();
-            zout.close();
-            out.close();
-            final byte[] data = out.toByteArray();
-            Log.d(TAG, "serialized world to %d bytes", data.length);
+            final long start = System.nanoTime();
+            final byte[] data = WorldCodec.encode(this);
+            Log.d(TAG, "serialized world to %d bytes in %.2fms", data.length, (System.nanoTime() - start) / 1e6);
             return data;
         } catch (IOException e) {
             Log.e(TAG, "error serializing world", e);
@@ -158,28 +205,31 @@ public class World implements Serializable {
         return null;
     }
 
+    /**
+     * Decodes a world, or returns null. Worlds saved as gzipped java
+     * serialization before WorldCodec no longer load, their classes have
+     * changed shape since.
+     */
     public static World unserialize(final byte[] data) {
         try {
-            Log.d(TAG, "unserializing %d bytes", data.length);
-            final ByteArrayInputStream in = new ByteArrayInputStream(data);
-            final GZIPInputStream zin = new GZIPInputStream(in);
-            final ObjectInputStream objectIn = new ObjectInputStream(zin);
-            final World rv =  (World) objectIn.readObject();
-            objectIn.close();
-            zin.close();
-            in.close();
+            final long start = System.nanoTime();
+            final World rv = WorldCodec.decode(data);
+            Log.d(TAG, "unserialized %d bytes in %.2fms", data.length, (System.nanoTime() - start) / 1e6);
             return rv;
         } catch (IOException e) {
             Log.e(TAG, "error unserializing world", e);
-        } catch (ClassNotFoundException e) {
-            Log.e(TAG, "error unserializing world", e);
         }
 
         return null;
     }
 
     public static World generate() {
+        return generate(new Random().nextLong());
+    }
+
+    public static World generate(final long seed) {
         final World world = new World();
+        world.mRandom = new Rng(seed);
 
         world.setMap(MapLoader.loadDefault());
 
@@ -189,40 +239,216 @@ public class World implements Serializable {
         return world;
     }
 
-    private void setMap(final WorldMap map) {
+    /**
+     * A copy of the world that shares nothing it can change, such as the
+     * world a turn started from. Actions and the map never change, so they
+     * are shared. The archive is not copied.
+     */
+    World copy() {
+        final World rv = new World();
+
+        final Map<Player, Player> players = new HashMap<Player, Player>();
+        for (final Player player : mPlayers.values())
+            players.put(player, player.copy());
+        for (int handle = 0; handle < mEntities.size(); handle++) {
+            final Player player = mEntities.getPlayer(handle);
+            if (player != null && !players.containsKey(player))
+                players.put(player, player.copy());
+        }
+
+        for (final Map.Entry<String, Player> seat : mPlayers.entrySet())
+            rv.mPlayers.put(seat.getKey(), players.get(seat.getValue()));
+        rv.mParticipantOrder.addAll(mParticipantOrder);
+        rv.mEntities = mEntities.copy(players);
+        rv.mActionJournal.addAll(mActionJournal);
+        rv.mCheckpoint = mCheckpoint;
+        rv.mResolved = mResolved;
+        rv.mTurn = mTurn;
+        rv.mRandom = new Rng(mRandom.getState());
+
+        rv.mMap = mMap;
+        if (mOccupancy != null) {
+            rv.mOccupancy = mOccupancy.clone();
+            rv.mStackNext = mStackNext.clone();
+            rv.mStackPrev = mStackPrev.clone();
+            rv.mFree = mFree.clone();
+            rv.mFreeCount = mFreeCount;
+        }
+        return rv;
+    }
+
+    void setMap(final WorldMap map) {
         mMap = map;
+        buildIndex();
+    }
+
+    private void buildIndex() {
+        if (mMap == null)
+            return;
+
+        final int cells = getWidth() * getHeight();
+        mOccupancy = new int[cells];
+        mFree = new int[cells + 1];
+        for (int i = 1; i <= cells; i++) {
+            mFree[i]++;
+            final int parent = i + (i & -i);
+            if (parent <= cells)
+                mFree[parent] += mFree[i];
+        }
+        mFreeCount = cells;
+        mStackNext = new int[mEntities.size()];
+        mStackPrev = new int[mEntities.size()];
+
+        for (int handle = 0; handle < mEntities.size(); handle++)
+            occupy(handle);
+    }
+
+    private boolean inBounds(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < getWidth() && y < getHeight();
+    }
+
+    private int cell(final int x, final int y) {
+        return x * getHeight() + y;
+    }
+
+    private void occupy(final int handle) {
+        final int x = mEntities.getX(handle), y = mEntities.getY(handle);
+        if (mOccupancy == null || !inBounds(x, y) || isDead(handle))
+            return;
+
+        if (handle >= mStackNext.length) {
+            final int capacity = Math.max(handle + 1, mStackNext.length * 2);
+            mStackNext = Arrays.copyOf(mStackNext, capacity);
+            mStackPrev = Arrays.copyOf(mStackPrev, capacity);
+        }
+
+        final int cell = cell(x, y);
+        final int owner = mOccupancy[cell];
+        if (owner == 0) {
+            mOccupancy[cell] = handle + 1;
+            free(cell, -1);
+            return;
+        }
+
+        // stacked right behind the owner, who keeps the cell
+        final int next = mStackNext[owner - 1];
+        mStackNext[handle] = next;
+        mStackPrev[handle] = owner;
+        if (next != 0)
+            mStackPrev[next - 1] = handle + 1;
+        mStackNext[owner - 1] = handle + 1;
     }
 
-    private void placeEntity(final Entity entity) {
-        boolean placed = false;
-        while(!placed) {
-            final int x = mRandom.nextInt(getWidth());
-            final int y = mRandom.nextInt(getHeight());
-            if (scanEntity(x, y) == null) {
-                placed = true;
-                entity.setX(x);
-                entity.setY(y);
-                Log.d(TAG, "placed at %s,%s", x, y);
+    private void free(final int cell, final int delta) {
+        mFreeCount += delta;
+        for (int i = cell + 1; i < mFree.length; i += i & -i)
+            mFree[i] += delta;
+    }
+
+    private void vacate(final int handle) {
+        final int x = mEntities.getX(handle), y = mEntities.getY(handle);
+        if (mOccupancy == null || !inBounds(x, y) || isDead(handle))
+            return;
+
+        final int cell = cell(x, y);
+        final int next = mStackNext[handle], prev = mStackPrev[handle];
+        if (mOccupancy[cell] != handle + 1) {
+            if (prev == 0)
+                return; // not on the cell
+
+            mStackNext[prev - 1] = next;
+            if (next != 0)
+                mStackPrev[next - 1] = prev;
+            mStackNext[handle] = mStackPrev[handle] = 0;
+            return;
+        }
+
+        // the entity stacked behind takes the cell over
+        mOccupancy[cell] = next;
+        if (next != 0) {
+            mStackPrev[next - 1] = 0;
+            mStackNext[handle] = 0;
+        } else {
+            free(cell, 1);
+        }
+    }
+
+    void moveEntity(final int handle, final int x, final int y) {
+        vacate(handle);
+        mEntities.setPosition(handle, x, y);
+        occupy(handle);
+    }
+
+    // the dead leave the occupancy grid
+    void setFlags(final int handle, final int flags) {
+        vacate(handle);
+        mEntities.setFlags(handle, flags);
+        occupy(handle);
+    }
+
+    public boolean isDead(final int handle) {
+        return (mEntities.getFlags(handle) & EntityStore.FLAG_DEAD) != 0;
+    }
+
+    // draws the k-th free cell in cell order, so placement takes log time
+    // however full the map is
+    private int freeCell(final String name) {
+        if (mFreeCount == 0)
+            throw new IllegalStateException("no free cell to place " + name);
+
+        int k = mRandom.nextInt(mFreeCount), cell = 0;
+        for (int step = Integer.highestOneBit(mFree.length - 1); step > 0; step >>= 1) {
+            if (cell + step < mFree.length && mFree[cell + step] <= k) {
+                cell += step;
+                k -= mFree[cell];
             }
         }
+        return cell;
     }
 
+    /**
+     * Journals a player taking a seat, unless the participant has one.
+     */
     public void join(final String particiapntId, final Player player) {
-        if (!mPlayers.containsKey(particiapntId)) {
-            mPlayers.put(particiapntId, player);
+        if (!mPlayers.containsKey(particiapntId))
+            journal(new JoinAction(particiapntId, player));
+    }
 
-            final PlayerEntity playerEntity = new PlayerEntity(player);
-            placeEntity(playerEntity);
-            mEntities.add(playerEntity);
+    // executes a join, the player entering at full stamina
+    void seat(final String participantId, final Player player) {
+        if (mPlayers.containsKey(participantId))
+            return;
 
-            mPlayerEntities.put(player, playerEntity);
-        }
+        player.stamina = STAMINA;
+        player.timeUnits = TIME_UNITS;
+        mPlayers.put(participantId, player);
+
+        final int cell = freeCell(player.name);
+        final int x = cell / getHeight(), y = cell % getHeight();
+        occupy(mEntities.addPlayer(player, x, y));
+        Log.d(TAG, "placed at %s,%s", x, y);
+    }
+
+    // adds an entity placed elsewhere, such as in another player's turn
+    int addEntity(final int kind, final String name, final String tile, final int x, final int y, final Player player) {
+        final int handle = player != null ? mEntities.addPlayer(player, name, tile, x, y)
+                : mEntities.add(kind, name, tile, x, y);
+        occupy(handle);
+        return handle;
     }
 
     public void addNonPlayerEntity() {
-        final NonPlayerEntity npc = new NonPlayerEntity("Orange Beast", "beast-orange");
-        placeEntity(npc);
-        mEntities.add(npc);
+        if (mFreeCount == 0) {
+            Log.w(TAG, "no free cell for an npc");
+            return;
+        }
+
+        final int cell = freeCell("npc");
+        final int x = cell / getHeight(), y = cell % getHeight();
+        final int handle = mEntities.add(EntityStore.KIND_NPC, "Orange Beast", "beast-orange", x, y);
+        mEntities.setHealth(handle, NPC_HEALTH);
+        occupy(handle);
+        Log.d(TAG, "placed at %s,%s", x, y);
     }
 
 
@@ -251,26 +477,251 @@ public class World implements Serializable {
         return mPlayers.get(mParticipantOrder.get(n));
     }
 
-    public List<Entity> getEntities() {
+    /**
+     * The entities as columns, for walking many of them without a view of
+     * each.
+     */
+    public EntityStore getEntityStore() {
         return mEntities;
     }
 
-    public Entity scanEntity(final int x, final int y) {
+    /**
+     * The entities as views, made as the list is read.
+     */
+    public List<Entity> getEntities() {
+        return new AbstractList<Entity>() {
+            @Override
+            public Entity get(final int handle) {
+                return getEntity(handle);
+            }
+
+            @Override
+            public int size() {
+                return mEntities.size();
+            }
+        };
+    }
 
-        for (Entity e : mEntities)
-            if (e.getX() == x && e.getY() == y)
-                return e;
+    public Entity getEntity(final int handle) {
+        if (mEntities.getKind(handle) == EntityStore.KIND_PLAYER)
+            return new PlayerEntity(this, handle);
 
-        return null;
+        return new NonPlayerEntity(this, handle);
+    }
+
+    /**
+     * The handle of the entity at a cell, or -1.
+     */
+    public int scanHandle(final int x, final int y) {
+        if (!inBounds(x, y))
+            return -1;
+
+        return mOccupancy[cell(x, y)] - 1;
+    }
+
+    public Entity scanEntity(final int x, final int y) {
+        final int handle = scanHandle(x, y);
+        return handle >= 0 ? getEntity(handle) : null;
     }
 
+    /**
+     * The actions since the checkpoint. Every action has a sequence number,
+     * its position among all actions of the match, so the action at index
+     * i has getCheckpoint() + i.
+     */
     public List<Action> getJournal() {
         return mActionJournal;
     }
 
-    public void castSpell(final Player player, final Spell spell, final Entity target) {
-        final SpellAction action = new SpellAction(mPlayerEntities.get(player), spell, target);
+    public int getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    /**
+     * The sequence of the next action.
+     */
+    public int getJournalEnd() {
+        return mCheckpoint + mActionJournal.size();
+    }
+
+    public void setArchive(final Archive archive) {
+        mArchive = archive;
+    }
+
+    /**
+     * Folds the actions before a sequence out of the journal. Their effects
+     * are already in the world, so only the record of them goes, to the
+     * archive if one is set.
+     */
+    public void checkpoint(final int sequence) {
+        final int count = Math.min(sequence - mCheckpoint, mActionJournal.size());
+        if (count <= 0)
+            return;
+
+        final List<Action> folded = mActionJournal.subList(0, count);
+        if (mArchive != null)
+            mArchive.archive(mCheckpoint, new ArrayList<Action>(folded));
+        folded.clear();
+        mCheckpoint += count;
+        Log.d(TAG, "checkpointed journal at %d, %d actions left", mCheckpoint, mActionJournal.size());
+    }
+
+    private void journal(final Action action) {
         mActionJournal.add(action);
+        resolve();
+    }
+
+    /**
+     * Executes the journaled actions not yet executed, in order. Executed
+     * actions are checkpointed at the same sequences however they were
+     * journaled, so a replay checkpoints as the original did.
+     */
+    public void resolve() {
+        while (mResolved < getJournalEnd()) {
+            final Action action = mActionJournal.get(mResolved - mCheckpoint);
+            mResolved++;
+            action.execute(this);
+
+            if (mResolved - mCheckpoint >= JOURNAL_TAIL * 2)
+                checkpoint(mResolved - JOURNAL_TAIL);
+        }
+    }
+
+    /**
+     * Journals and executes actions of another copy of this world, such as
+     * the actions of a turn sent from its start.
+     */
+    public void replay(final List<Action> actions) {
+        mActionJournal.addAll(actions);
+        resolve();
+    }
+
+    /**
+     * Replays on base the actions result journaled since, and tells if that
+     * resolved to result. Base is left resolved forward. False if result no
+     * longer journals them, see canVerify.
+     */
+    public static boolean verify(final World base, final World result) {
+        try {
+            return verify(base, result, WorldCodec.encode(result));
+        } catch (IOException e) {
+            Log.e(TAG, "error encoding world to verify", e);
+            return false;
+        }
+    }
+
+    // verifies against result as already encoded, such as a turn just read
+    static boolean verify(final World base, final World result, final byte[] encoded) throws IOException {
+        if (!canVerify(base, result))
+            return false;
+
+        final int from = base.getJournalEnd() - result.mCheckpoint;
+        base.setOrder(result.mParticipantOrder);
+        base.replay(result.mActionJournal.subList(from, result.mActionJournal.size()));
+        return Arrays.equals(WorldCodec.encode(base), encoded);
+    }
+
+    /**
+     * True if result still journals every action since base, which it may
+     * have checkpointed out after a turn of many actions.
+     */
+    public static boolean canVerify(final World base, final World result) {
+        final int from = base.getJournalEnd() - result.mCheckpoint;
+        return from >= 0 && from <= result.mActionJournal.size();
+    }
+
+    /**
+     * Journals the end of the turn.
+     */
+    public void endTurn() {
+        journal(new EndTurnAction());
+    }
+
+    // executes the end of a turn
+    void step() {
+        mTurn++;
+        for (final Player player : mPlayers.values())
+            player.timeUnits = TIME_UNITS;
+
+        for (int handle = 0; handle < mEntities.size(); handle++) {
+            final int turns = mEntities.getShieldTurns(handle);
+            if (turns > 0)
+                mEntities.setShield(handle, turns > 1 ? mEntities.getShield(handle) : 0, turns - 1);
+        }
+    }
+
+    public int getTurn() {
+        return mTurn;
+    }
+
+    /**
+     * The hit points of an entity, a player's stamina.
+     */
+    public int getHealth(final int handle) {
+        final Player player = mEntities.getPlayer(handle);
+        return player != null ? player.stamina : mEntities.getHealth(handle);
+    }
+
+    // takes hit points from the target, its shield first. the caster of
+    // the last blow gets the kill
+    void damage(final int actor, final int target, final int amount) {
+        final int shield = mEntities.getShield(target);
+        final int absorbed = Math.min(shield, amount);
+        if (absorbed > 0)
+            mEntities.setShield(target, shield - absorbed, shield - absorbed > 0 ? mEntities.getShieldTurns(target) : 0);
+
+        final int health = getHealth(target) - (amount - absorbed);
+        final Player player = mEntities.getPlayer(target);
+        if (player != null)
+            player.stamina = health;
+        else
+            mEntities.setHealth(target, health);
+
+        if (health > 0)
+            return;
+
+        setFlags(target, mEntities.getFlags(target) | EntityStore.FLAG_DEAD);
+        if (player != null)
+            player.deaths++;
+
+        final Player killer = mEntities.getPlayer(actor);
+        if (killer != null && actor != target)
+            killer.kills++;
+        Log.d(TAG, "%s killed %s", mEntities.getName(actor), mEntities.getName(target));
+    }
+
+    void shield(final int target, final int power, final int turns) {
+        mEntities.setShield(target, mEntities.getShield(target) + power, turns);
+    }
+
+    /**
+     * Journals a cast of a spell of the default spell book. Spells on the
+     * caster target its own entity. Returns false if the target is out of
+     * the spell's range.
+     */
+    public boolean castSpell(final Player player, final Spell spell, final Entity target) {
+        final SpellBook book = SpellBook.getDefault();
+        final int id = spell.getId();
+        final int actor = mEntities.findPlayer(player);
+        if (actor < 0 || isDead(actor)) {
+            Log.w(TAG, "%s has not joined or is dead, can't cast %s", player.name, spell.getName());
+            return false;
+        }
+
+        final int range = book.getRange(id);
+        final int resolved = range == 0 ? actor : target != null ? target.getHandle() : -1;
+        if (resolved >= 0 && distance(actor, resolved) > range) {
+            Log.d(TAG, "%s is out of range of %s", mEntities.getName(resolved), spell.getName());
+            return false;
+        }
+
+        journal(new SpellAction(actor, spell, resolved));
+        return true;
+    }
+
+    // tiles between two entities, counting diagonal steps as one
+    int distance(final int a, final int b) {
+        return Math.max(Math.abs(mEntities.getX(a) - mEntities.getX(b)), Math.abs(mEntities.getY(a) - mEntities.getY(b)));
     }
 
 }
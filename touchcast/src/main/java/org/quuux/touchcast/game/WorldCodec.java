@@ -0,0 +1,439 @@
+package org.quuux.touchcast.game;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The binary form of a world, as saved and sent with every turn.
+ *
+ * Format, big endian: magic, version as a varint, then the string table and
+ * the body. Every string is written once, in the table, and referred to by
+ * its index. Counts, coordinates and stats are varints, signed ones zigzag
+ * encoded. The body holds, in order:
+ *
+ *   map       width, height, the palette of tiles and the cells as runs of
+ *             palette indices
+ *   players   each player once, referred to by index below
+ *   seats     participant id and player index of each player in the match,
+ *             then the participant order
+ *   entities  kind, name, tile, position and flags, the player index of
+ *             player entities, then health, shield and shield turns
+ *             (version 3)
+ *   journal   the actions, each a type followed by its fields, then the
+ *             sequence of the first (version 2)
+ *   state     the Rng state, the turn and the sequence of the next action
+ *             to execute (version 3)
+ *
+ * A new field goes at the end of its section behind a version check, so
+ * older data keeps reading. Worlds written before this format, as gzipped
+ * java serialization, are not read.
+ */
+public class WorldCodec {
+
+    static final int MAGIC = 0x54435744; // TCWD
+    static final int VERSION = 3;
+
+    static final int MAX_MAP_SIZE = 1024; // tiles a side
+
+    static final int ACTION_SPELL = 1;
+    static final int ACTION_JOIN = 2;
+    static final int ACTION_END_TURN = 3;
+
+    public static byte[] encode(final World world) throws IOException {
+        final Strings strings = new Strings();
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        writeMap(out, strings, world.mMap);
+
+        final List<Player> players = new ArrayList<Player>();
+        final Map<Player, Integer> playerIds = new HashMap<Player, Integer>();
+        for (final Player player : world.mPlayers.values())
+            addPlayer(players, playerIds, player);
+        final EntityStore entities = world.mEntities;
+        for (int handle = 0; handle < entities.size(); handle++)
+            if (entities.getKind(handle) == EntityStore.KIND_PLAYER)
+                addPlayer(players, playerIds, entities.getPlayer(handle));
+
+        writeVarint(out, players.size());
+        for (final Player player : players)
+            writePlayer(out, strings, player);
+
+        writeVarint(out, world.mPlayers.size());
+        for (final Map.Entry<String, Player> seat : world.mPlayers.entrySet()) {
+            writeVarint(out, strings.id(seat.getKey()));
+            writeVarint(out, playerIds.get(seat.getValue()));
+        }
+        writeVarint(out, world.mParticipantOrder.size());
+        for (final String participant : world.mParticipantOrder)
+            writeVarint(out, strings.id(participant));
+
+        writeVarint(out, entities.size());
+        for (int handle = 0; handle < entities.size(); handle++) {
+            final int kind = entities.getKind(handle);
+            out.writeByte(kind);
+            writeVarint(out, strings.id(entities.getName(handle)));
+            writeVarint(out, strings.id(entities.getTile(handle)));
+            writeVarint(out, zigzag(entities.getX(handle)));
+            writeVarint(out, zigzag(entities.getY(handle)));
+            writeVarint(out, entities.getFlags(handle));
+            if (kind == EntityStore.KIND_PLAYER)
+                writeVarint(out, playerIds.get(entities.getPlayer(handle)));
+            writeVarint(out, zigzag(entities.getHealth(handle)));
+            writeVarint(out, entities.getShield(handle));
+            writeVarint(out, entities.getShieldTurns(handle));
+        }
+
+        writeVarint(out, world.mActionJournal.size());
+        for (final World.Action action : world.mActionJournal)
+            writeAction(out, strings, action);
+        writeVarint(out, world.mCheckpoint);
+
+        out.writeLong(world.mRandom.getState());
+        writeVarint(out, world.mTurn);
+        writeVarint(out, world.mResolved);
+        out.flush();
+
+        final ByteArrayOutputStream rv = new ByteArrayOutputStream(body.size() + strings.size() * 8 + 16);
+        final DataOutputStream header = new DataOutputStream(rv);
+        header.writeInt(MAGIC);
+        writeVarint(header, VERSION);
+        strings.write(header);
+        header.flush();
+        body.writeTo(rv);
+        return rv.toByteArray();
+    }
+
+    public static World decode(final byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a world");
+
+        final int version = readVarint(in);
+        if (version < 1 || version > VERSION)
+            throw new IOException("unsupported world version " + version);
+
+        final String[] strings = readStrings(in);
+
+        final World world = new World();
+        final WorldMap map = readMap(in, strings);
+
+        final Player[] players = new Player[count(in, "player")];
+        for (int i = 0; i < players.length; i++)
+            players[i] = readPlayer(in, strings);
+
+        final int seats = count(in, "seat");
+        for (int i = 0; i < seats; i++) {
+            final String participant = string(strings, readVarint(in));
+            world.mPlayers.put(participant, players[index(in, players.length, "player")]);
+        }
+        final int order = count(in, "participant");
+        for (int i = 0; i < order; i++)
+            world.mParticipantOrder.add(string(strings, readVarint(in)));
+
+        final EntityStore entities = world.mEntities;
+        final int count = count(in, "entity");
+        for (int i = 0; i < count; i++) {
+            final int kind = in.readUnsignedByte();
+            if (kind != EntityStore.KIND_PLAYER && kind != EntityStore.KIND_NPC)
+                throw new IOException("bad entity kind " + kind);
+            final String name = string(strings, readVarint(in));
+            final String tile = string(strings, readVarint(in));
+            final int x = unzigzag(readVarint(in));
+            final int y = unzigzag(readVarint(in));
+            final int flags = readVarint(in);
+
+            final int handle;
+            if (kind == EntityStore.KIND_PLAYER) {
+                handle = entities.addPlayer(players[index(in, players.length, "player")], name, tile, x, y);
+            } else {
+                handle = entities.add(kind, name, tile, x, y);
+            }
+            entities.setFlags(handle, flags);
+            if (version >= 3) {
+                entities.setHealth(handle, unzigzag(readVarint(in)));
+                entities.setShield(handle, readVarint(in), readVarint(in));
+            } else if (kind != EntityStore.KIND_PLAYER) {
+                entities.setHealth(handle, World.NPC_HEALTH);
+            }
+        }
+
+        final int actions = count(in, "action");
+        for (int i = 0; i < actions; i++)
+            world.mActionJournal.add(readAction(in, strings));
+        if (version >= 2)
+            world.mCheckpoint = readVarint(in);
+
+        // nothing was executed before version 3, take it all as done
+        if (version >= 3) {
+            world.mRandom.setState(in.readLong());
+            world.mTurn = readVarint(in);
+            world.mResolved = readVarint(in);
+        } else {
+            // seeded from the data, so every copy of an old world draws the
+            // same numbers
+            world.mRandom.setState(hash(data));
+            world.mResolved = world.getJournalEnd();
+        }
+        if (world.mCheckpoint < 0 || world.mResolved < world.mCheckpoint || world.mResolved > world.getJournalEnd())
+            throw new IOException("bad journal sequence " + world.mResolved);
+
+        // indexes the entities read above
+        world.setMap(map);
+        return world;
+    }
+
+    private static void writeMap(final DataOutputStream out, final Strings strings, final WorldMap map) throws IOException {
+        final int width = map.mMap.length;
+        final int height = map.mMap[0].length;
+        writeVarint(out, width);
+        writeVarint(out, height);
+
+        writeVarint(out, map.mTiles.length);
+        for (final Tile tile : map.mTiles) {
+            writeVarint(out, strings.id(tile.name));
+            out.writeByte((tile.walkable ? 1 : 0) | (tile.damaging ? 2 : 0));
+        }
+
+        // runs of the same tile, column by column
+        int run = 0, last = -1;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                final int tile = map.mMap[x][y];
+                if (tile != last && run > 0) {
+                    writeVarint(out, run);
+                    writeVarint(out, last);
+                    run = 0;
+                }
+                last = tile;
+                run++;
+            }
+        }
+        writeVarint(out, run);
+        writeVarint(out, last);
+    }
+
+    private static WorldMap readMap(final DataInputStream in, final String[] strings) throws IOException {
+        final int width = readVarint(in);
+        final int height = readVarint(in);
+        if (width <= 0 || height <= 0 || width > MAX_MAP_SIZE || height > MAX_MAP_SIZE)
+            throw new IOException("bad map size " + width + "x" + height);
+        final WorldMap map = new WorldMap(width, height);
+
+        final Tile[] tiles = new Tile[count(in, "tile")];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(string(strings, readVarint(in)));
+            final int flags = in.readUnsignedByte();
+            tiles[i].walkable = (flags & 1) != 0;
+            tiles[i].damaging = (flags & 2) != 0;
+        }
+        map.setTiles(tiles);
+
+        int cell = 0;
+        while (cell < width * height) {
+            final int run = readVarint(in);
+            final int tile = readVarint(in);
+            if (run <= 0 || cell + run > width * height || tile < 0 || tile >= tiles.length)
+                throw new IOException("malformed map");
+
+            for (final int end = cell + run; cell < end; cell++)
+                map.mMap[cell / height][cell % height] = tile;
+        }
+        return map;
+    }
+
+    private static void addPlayer(final List<Player> players, final Map<Player, Integer> ids, final Player player) {
+        if (!ids.containsKey(player)) {
+            ids.put(player, players.size());
+            players.add(player);
+        }
+    }
+
+    static void writePlayer(final DataOutputStream out, final Strings strings, final Player player) throws IOException {
+        out.writeLong(player.uuid.getMostSignificantBits());
+        out.writeLong(player.uuid.getLeastSignificantBits());
+        writeVarint(out, player.version);
+        writeVarint(out, strings.id(player.name));
+        writeVarint(out, strings.id(player.tileKey));
+        writeVarint(out, zigzag(player.stamina));
+        writeVarint(out, zigzag(player.timeUnits));
+        writeVarint(out, player.experience);
+        writeVarint(out, player.deaths);
+        writeVarint(out, player.matches);
+        writeVarint(out, player.wins);
+        writeVarint(out, player.kills);
+    }
+
+    static Player readPlayer(final DataInputStream in, final String[] strings) throws IOException {
+        final Player player = new Player();
+        player.uuid = new UUID(in.readLong(), in.readLong());
+        player.version = readVarint(in);
+        player.name = string(strings, readVarint(in));
+        player.tileKey = string(strings, readVarint(in));
+        player.stamina = unzigzag(readVarint(in));
+        player.timeUnits = unzigzag(readVarint(in));
+        player.experience = readVarint(in);
+        player.deaths = readVarint(in);
+        player.matches = readVarint(in);
+        player.wins = readVarint(in);
+        player.kills = readVarint(in);
+        return player;
+    }
+
+    static void writeAction(final DataOutputStream out, final Strings strings, final World.Action action) throws IOException {
+        if (action instanceof SpellAction) {
+            final SpellAction spell = (SpellAction) action;
+            writeVarint(out, ACTION_SPELL);
+            writeVarint(out, spell.getSpell().getId());
+            writeVarint(out, strings.id(spell.getSpell().getName()));
+            writeVarint(out, zigzag(spell.getActor()));
+            writeVarint(out, zigzag(spell.getTarget()));
+        } else if (action instanceof JoinAction) {
+            final JoinAction join = (JoinAction) action;
+            writeVarint(out, ACTION_JOIN);
+            writeVarint(out, strings.id(join.getParticipantId()));
+            writePlayer(out, strings, join.getPlayer());
+        } else if (action instanceof EndTurnAction) {
+            writeVarint(out, ACTION_END_TURN);
+        } else {
+            throw new IOException("can't encode " + action.getClass().getSimpleName());
+        }
+    }
+
+    static World.Action readAction(final DataInputStream in, final String[] strings) throws IOException {
+        final int type = readVarint(in);
+        switch (type) {
+            case ACTION_SPELL:
+                final int id = readVarint(in);
+                final String name = string(strings, readVarint(in));
+                final int actor = unzigzag(readVarint(in));
+                final int target = unzigzag(readVarint(in));
+                return new SpellAction(actor, resolveSpell(id, name), target);
+
+            case ACTION_JOIN:
+                final String participant = string(strings, readVarint(in));
+                return new JoinAction(participant, readPlayer(in, strings));
+
+            case ACTION_END_TURN:
+                return new EndTurnAction();
+
+            default:
+                throw new IOException("unknown action " + type);
+        }
+    }
+
+    // the id is what resolves, the name is kept to tell a spell book that
+    // has changed since the world was written
+    private static Spell resolveSpell(final int id, final String name) {
+        final SpellBook book = SpellBook.getDefault();
+        if (id >= 0 && id < book.getSpellCount() && book.getSpell(id).getName().equals(name))
+            return book.getSpell(id);
+        return new Spell(id, name);
+    }
+
+    // strings are written once and referred to by index, null is 0
+    static class Strings {
+        final List<String> list = new ArrayList<String>();
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        int id(final String string) {
+            if (string == null)
+                return 0;
+
+            Integer id = ids.get(string);
+            if (id == null) {
+                list.add(string);
+                id = list.size();
+                ids.put(string, id);
+            }
+            return id;
+        }
+
+        int size() {
+            return list.size();
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            writeVarint(out, list.size());
+            for (final String string : list)
+                out.writeUTF(string);
+        }
+    }
+
+    static String[] readStrings(final DataInputStream in) throws IOException {
+        final String[] strings = new String[count(in, "string")];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = in.readUTF();
+        return strings;
+    }
+
+    static String string(final String[] strings, final int id) throws IOException {
+        if (id == 0)
+            return null;
+        if (id < 0 || id > strings.length)
+            throw new IOException("bad string " + id);
+        return strings[id - 1];
+    }
+
+    // an index into a table of length entries
+    static int index(final DataInputStream in, final int length, final String what) throws IOException {
+        final int i = readVarint(in);
+        if (i < 0 || i >= length)
+            throw new IOException("bad " + what + " " + i);
+        return i;
+    }
+
+    // a count of things written in at least a byte each, so a corrupt count
+    // fails here rather than allocating for it
+    static int count(final DataInputStream in, final String what) throws IOException {
+        final int n = readVarint(in);
+        if (n < 0 || n > in.available())
+            throw new IOException("bad " + what + " count " + n);
+        return n;
+    }
+
+    // 64 bit FNV-1a of an encoded world
+    static long hash(final byte[] data) {
+        long rv = 0xcbf29ce484222325L;
+        for (final byte b : data) {
+            rv ^= b & 0xff;
+            rv *= 0x100000001b3L;
+        }
+        return rv;
+    }
+
+    static int zigzag(final int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int unzigzag(final int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void writeVarint(final DataOutputStream out, int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    static int readVarint(final DataInputStream in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+        throw new IOException("malformed varint");
+    }
+}
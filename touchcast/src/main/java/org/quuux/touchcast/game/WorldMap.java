@@ -1,8 +1,6 @@
 package org.quuux.touchcast.game;
 
-import java.io.Serializable;
-
-public class WorldMap implements Serializable {
+public class WorldMap {
 
     Tile[] mTiles;
     int[][] mMap;
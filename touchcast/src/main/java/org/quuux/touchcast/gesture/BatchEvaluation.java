@@ -0,0 +1,202 @@
+package org.quuux.touchcast.gesture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs a corpus of recorded strokes through a recognizer and measures it.
+ * Every stroke is timed for latency and throughput, while accuracy and the
+ * confusion matrix only count strokes the player confirmed a label for.
+ * Needs nothing from android, so it runs on any JVM.
+ */
+public class BatchEvaluation {
+
+    public static final String NO_MATCH = "(none)";
+
+    private final int mStrokes;
+    private final long mElapsedNanos;
+    private final long[] mLatencies; // sorted
+    private final List<String> mLabels;
+    private final List<String> mColumns;
+    private final int[][] mConfusion;
+    private int mLabeled;
+    private int mCorrect;
+
+    private BatchEvaluation(final int strokes, final long elapsedNanos, final long[] latencies, final List<String> labels,
+                            final List<String> columns, final int[][] confusion) {
+        mStrokes = strokes;
+        mElapsedNanos = elapsedNanos;
+        mLatencies = latencies;
+        mLabels = labels;
+        mColumns = columns;
+        mConfusion = confusion;
+
+        for (int row = 0; row < labels.size(); row++) {
+            for (int col = 0; col < columns.size(); col++) {
+                mLabeled += confusion[row][col];
+                if (labels.get(row).equals(columns.get(col)))
+                    mCorrect += confusion[row][col];
+            }
+        }
+    }
+
+    /**
+     * Recognizes every entry once after warmup passes over the whole corpus,
+     * which let the JIT settle before anything is measured.
+     */
+    public static BatchEvaluation run(final Recognizer recognizer, final Recognizer.Mode mode,
+                                      final List<StrokeCorpus.Entry> entries, final int warmup) {
+        for (int round = 0; round < warmup; round++)
+            for (final StrokeCorpus.Entry entry : entries)
+                recognizer.recognize(entry.points, entry.count, mode);
+
+        final String[] results = new String[entries.size()];
+        final long[] latencies = new long[entries.size()];
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < results.length; i++) {
+            final StrokeCorpus.Entry entry = entries.get(i);
+            final long before = System.nanoTime();
+            final Recognizer.Result result = recognizer.recognize(entry.points, entry.count, mode);
+            latencies[i] = System.nanoTime() - before;
+            results[i] = result != null ? result.stroke.name : NO_MATCH;
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+
+        final List<String> labels = new ArrayList<String>();
+        final List<String> columns = new ArrayList<String>();
+        for (int i = 0; i < results.length; i++) {
+            final String label = entries.get(i).label;
+            if (label == null)
+                continue;
+            if (!labels.contains(label))
+                labels.add(label);
+            if (!columns.contains(results[i]))
+                columns.add(results[i]);
+        }
+        Collections.sort(labels);
+
+        // columns list the labels first so the diagonal lines up
+        final List<String> ordered = new ArrayList<String>(labels);
+        for (final String column : columns)
+            if (!ordered.contains(column))
+                ordered.add(column);
+
+        final Map<String, Integer> rows = index(labels);
+        final Map<String, Integer> cols = index(ordered);
+        final int[][] confusion = new int[labels.size()][ordered.size()];
+        for (int i = 0; i < results.length; i++) {
+            final String label = entries.get(i).label;
+            if (label != null)
+                confusion[rows.get(label)][cols.get(results[i])]++;
+        }
+
+        return new BatchEvaluation(results.length, elapsed, latencies, labels, ordered, confusion);
+    }
+
+    private static Map<String, Integer> index(final List<String> names) {
+        final Map<String, Integer> rv = new HashMap<String, Integer>();
+        for (int i = 0; i < names.size(); i++)
+            rv.put(names.get(i), i);
+        return rv;
+    }
+
+    public int getStrokeCount() {
+        return mStrokes;
+    }
+
+    public int getLabeledCount() {
+        return mLabeled;
+    }
+
+    public int getCorrectCount() {
+        return mCorrect;
+    }
+
+    public float getAccuracy() {
+        return mLabeled > 0 ? (float) mCorrect / mLabeled : 0;
+    }
+
+    /**
+     * Strokes recognized per second over the measured pass.
+     */
+    public double getThroughput() {
+        return mElapsedNanos > 0 ? mStrokes / (mElapsedNanos / 1e9) : 0;
+    }
+
+    /**
+     * Latency in nanos at percentile p, between 0 and 100.
+     */
+    public long getLatency(final double p) {
+        if (mLatencies.length == 0)
+            return 0;
+
+        final int i = (int) Math.ceil(p / 100 * mLatencies.length) - 1;
+        return mLatencies[Math.max(0, Math.min(mLatencies.length - 1, i))];
+    }
+
+    /**
+     * The confirmed labels, the rows of the confusion matrix.
+     */
+    public List<String> getLabels() {
+        return Collections.unmodifiableList(mLabels);
+    }
+
+    /**
+     * The recognized names, the columns of the confusion matrix. The labels
+     * come first in the same order, then names no stroke was labeled with.
+     */
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(mColumns);
+    }
+
+    /**
+     * Number of strokes labeled getLabels().get(row) that were recognized as
+     * getColumns().get(col).
+     */
+    public int getConfusion(final int row, final int col) {
+        return mConfusion[row][col];
+    }
+
+    public String format() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d strokes, %.0f strokes/s, p50 %.3fms, p99 %.3fms, max %.3fms%n",
+                mStrokes, getThroughput(), getLatency(50) / 1e6, getLatency(99) / 1e6, getLatency(100) / 1e6));
+        sb.append(String.format(Locale.US, "%d labeled, %d correct, accuracy %.2f%%%n", mLabeled, mCorrect, 100 * getAccuracy()));
+
+        if (mLabels.isEmpty())
+            return sb.toString();
+
+        int width = 0;
+        for (final String label : mLabels)
+            width = Math.max(width, label.length());
+
+        // columns are numbered to keep the matrix narrow
+        sb.append(String.format("%n%" + width + "s", ""));
+        for (int col = 0; col < mColumns.size(); col++)
+            sb.append(String.format(" %4d", col));
+        sb.append(String.format("%n"));
+
+        for (int row = 0; row < mLabels.size(); row++) {
+            sb.append(String.format("%" + width + "s", mLabels.get(row)));
+            for (int col = 0; col < mColumns.size(); col++) {
+                final int n = mConfusion[row][col];
+                sb.append(n == 0 ? "    ." : String.format(" %4d", n));
+            }
+            sb.append(String.format("%n"));
+        }
+
+        sb.append(String.format("%n"));
+        for (int col = 0; col < mColumns.size(); col++)
+            sb.append(String.format("%4d %s%n", col, mColumns.get(col)));
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package org.quuux.touchcast.gesture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recognizes gestures drawn in several strokes, after $N. The strokes of a
+ * gesture are joined in the order they were drawn and matched as a single
+ * stroke against every order and direction the template's strokes could
+ * have been drawn in. Those permutations are expanded once when the
+ * templates are loaded, so matching is a plain template scan.
+ *
+ * Only templates with as many strokes as the gesture are scanned, and a
+ * template is skipped when it starts off in a direction more than
+ * START_ANGLE_LIMIT away from the gesture.
+ */
+public class MultiStrokeRecognizer {
+
+    public static final int MAX_STROKES = 4;
+
+    static final float START_ANGLE_LIMIT = Recognizer.deg2Rad(30);
+
+    /**
+     * A template as authored, raw points per stroke.
+     */
+    public static class MultiStroke {
+        public final String name;
+        final float[][] strokes;
+
+        public MultiStroke(final String name, final float[][] strokes) {
+            if (strokes.length < 1 || strokes.length > MAX_STROKES)
+                throw new IllegalArgumentException(name + " must have between 1 and " + MAX_STROKES + " strokes");
+
+            this.name = name;
+            this.strokes = strokes;
+        }
+
+        public int getStrokeCount() {
+            return strokes.length;
+        }
+
+        /**
+         * Raw points of stroke i packed as x,y pairs, owned by the template.
+         */
+        public float[] getStroke(final int i) {
+            return strokes[i];
+        }
+
+        /**
+         * Joins the strokes in every order and direction, n! * 2^n unistrokes
+         * for n strokes.
+         */
+        public List<Recognizer.UniStroke> permute() {
+            final int n = strokes.length;
+            final List<Recognizer.UniStroke> rv = new ArrayList<Recognizer.UniStroke>();
+
+            int total = 0;
+            for (final float[] stroke : strokes)
+                total += stroke.length;
+            final float[] joined = new float[total];
+
+            final int[] order = new int[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+
+            // Heap's algorithm over the stroke orders
+            final int[] c = new int[n];
+            addDirections(order, joined, rv);
+            int i = 0;
+            while (i < n) {
+                if (c[i] < i) {
+                    swap(order, i % 2 == 0 ? 0 : c[i], i);
+                    addDirections(order, joined, rv);
+                    c[i]++;
+                    i = 0;
+                } else {
+                    c[i] = 0;
+                    i++;
+                }
+            }
+
+            return rv;
+        }
+
+        private void addDirections(final int[] order, final float[] joined, final List<Recognizer.UniStroke> rv) {
+            for (int reversed = 0; reversed < 1 << order.length; reversed++) {
+                int offset = 0;
+                for (int k = 0; k < order.length; k++) {
+                    final float[] stroke = strokes[order[k]];
+                    final int count = stroke.length / 2;
+                    final boolean backwards = (reversed & (1 << k)) != 0;
+                    for (int j = 0; j < count; j++) {
+                        final int src = backwards ? count - 1 - j : j;
+                        joined[offset++] = stroke[src * 2];
+                        joined[offset++] = stroke[src * 2 + 1];
+                    }
+                }
+                rv.add(new Recognizer.UniStroke(name, joined, offset / 2));
+            }
+        }
+
+        private static void swap(final int[] a, final int i, final int j) {
+            final int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    private final TemplateStore mStore;
+    private final Recognizer[] mRecognizers = new Recognizer[MAX_STROKES + 1];
+    private boolean mLoaded;
+    private boolean mParallel;
+
+    /**
+     * Recognizes against the process wide templates, which are loaded on
+     * first use.
+     */
+    public MultiStrokeRecognizer() {
+        mStore = TemplateStore.getDefault();
+    }
+
+    public MultiStrokeRecognizer(final List<MultiStroke> templates) {
+        mStore = null;
+        build(TemplateStore.permute(templates));
+    }
+
+    public void setParallel(final boolean parallel) {
+        mParallel = parallel;
+        for (final Recognizer recognizer : mRecognizers)
+            if (recognizer != null)
+                recognizer.setParallel(parallel);
+    }
+
+    /**
+     * Recognizes a gesture of count points made of the given number of
+     * strokes, joined in the order they were drawn.
+     */
+    public Recognizer.Result recognize(final float[] points, final int count, final int strokes, final Recognizer.Mode mode) {
+        if (strokes < 1 || strokes > MAX_STROKES || !load())
+            return null;
+
+        final Recognizer recognizer = mRecognizers[strokes];
+        return recognizer != null ? recognizer.recognize(points, count, mode) : null;
+    }
+
+    /**
+     * Number of permutations scanned for gestures of the given stroke count.
+     */
+    public int getTemplateCount(final int strokes) {
+        final Recognizer recognizer = strokes >= 1 && strokes <= MAX_STROKES && load() ? mRecognizers[strokes] : null;
+        return recognizer != null ? recognizer.getTemplateCount() : 0;
+    }
+
+    private boolean load() {
+        if (mLoaded)
+            return true;
+
+        final List<List<Recognizer.UniStroke>> permutations = mStore.getPermutations();
+        if (permutations == null)
+            return false;
+
+        build(permutations);
+        return true;
+    }
+
+    private void build(final List<List<Recognizer.UniStroke>> permutations) {
+        for (int n = 1; n <= MAX_STROKES && n < permutations.size(); n++) {
+            final List<Recognizer.UniStroke> templates = permutations.get(n);
+            if (templates.isEmpty())
+                continue;
+
+            final Recognizer recognizer = new Recognizer(templates);
+            recognizer.setStartAngleLimit(START_ANGLE_LIMIT);
+            recognizer.setParallel(mParallel);
+            mRecognizers[n] = recognizer;
+        }
+        mLoaded = true;
+    }
+}
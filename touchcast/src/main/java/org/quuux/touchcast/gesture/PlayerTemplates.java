@@ -0,0 +1,256 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A player's own samples of the gestures, kept in a local file. Samples are
+ * stored normalized, so reading them back skips the resampling.
+ *
+ * The file is a journal: adding or removing a sample appends one record
+ * instead of rewriting every sample, which keeps both cheap with thousands
+ * stored. The journal is rewritten without the removed samples once they
+ * outnumber the live ones, or after a torn write is found.
+ *
+ * Format, big endian: magic, version, then records of an op byte and a
+ * sample id. Adds follow with the name, the start direction and the
+ * normalized points.
+ */
+public class PlayerTemplates {
+
+    private static final String TAG = Log.buildTag(PlayerTemplates.class);
+
+    static final int MAGIC = 0x54435054; // TCPT
+    static final int VERSION = 1;
+
+    static final int ADD = 1;
+    static final int REMOVE = 2;
+
+    // removed samples tolerated in the journal before compacting it
+    static final int COMPACT_MIN = 64;
+
+    public static class Sample {
+        public final long id;
+        public final Recognizer.UniStroke stroke;
+
+        Sample(final long id, final Recognizer.UniStroke stroke) {
+            this.id = id;
+            this.stroke = stroke;
+        }
+    }
+
+    private final File mFile;
+    private final List<Sample> mSamples = new ArrayList<Sample>();
+    private boolean mLoaded;
+    private long mNextId;
+    private int mRemoved;
+
+    public PlayerTemplates(final File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the samples, reading the journal on the first call. Whatever
+     * could be read is kept if the journal is damaged.
+     */
+    public synchronized List<Sample> getSamples() {
+        load();
+        return Collections.unmodifiableList(new ArrayList<Sample>(mSamples));
+    }
+
+    /**
+     * Stores a new sample of a gesture drawn as count raw points.
+     */
+    public synchronized Sample add(final String name, final float[] rawPoints, final int count) {
+        load();
+
+        final Sample sample = new Sample(mNextId++, new Recognizer.UniStroke(name, rawPoints, count));
+        mSamples.add(sample);
+
+        DataOutputStream out = null;
+        try {
+            out = append();
+            writeAdd(out, sample);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "error saving sample of %s", e, name);
+        } finally {
+            close(out);
+        }
+
+        return sample;
+    }
+
+    public synchronized boolean remove(final Sample sample) {
+        load();
+
+        if (!mSamples.remove(sample))
+            return false;
+
+        mRemoved++;
+        if (mRemoved > COMPACT_MIN && mRemoved > mSamples.size()) {
+            compact();
+            return true;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = append();
+            out.writeByte(REMOVE);
+            out.writeLong(sample.id);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "error removing sample %d", e, sample.id);
+        } finally {
+            close(out);
+        }
+
+        return true;
+    }
+
+    private void load() {
+        if (mLoaded)
+            return;
+
+        mLoaded = true;
+
+        if (!mFile.exists())
+            return;
+
+        final long start = System.nanoTime();
+        boolean damaged = false;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a player template file");
+
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported player template version " + version);
+
+            while (true) {
+                final int op = in.read();
+                if (op == -1)
+                    break;
+
+                final long id = in.readLong();
+                mNextId = Math.max(mNextId, id + 1);
+
+                if (op == ADD) {
+                    mSamples.add(readAdd(in, id));
+                } else if (op == REMOVE) {
+                    removeById(id);
+                    mRemoved++;
+                } else {
+                    throw new IOException("bad record " + op);
+                }
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "player templates end in a torn record, dropping it");
+            damaged = true;
+        } catch (IOException e) {
+            Log.e(TAG, "error loading player templates", e);
+            damaged = true;
+        } finally {
+            close(in);
+        }
+
+        Log.d(TAG, "loaded %d player templates in %.2fms", mSamples.size(), (System.nanoTime() - start) / 1e6);
+
+        // appending after a damaged record would lose everything behind it
+        if (damaged)
+            compact();
+    }
+
+    private void removeById(final long id) {
+        for (int i = 0; i < mSamples.size(); i++) {
+            if (mSamples.get(i).id == id) {
+                mSamples.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live samples.
+     */
+    private void compact() {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (final Sample sample : mSamples)
+                writeAdd(out, sample);
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(mFile))
+                throw new IOException("could not replace " + mFile);
+
+            mRemoved = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "error compacting player templates", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private DataOutputStream append() throws IOException {
+        final boolean header = !mFile.exists() || mFile.length() == 0;
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+        if (header) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        return out;
+    }
+
+    private static Sample readAdd(final DataInputStream in, final long id) throws IOException {
+        final String name = in.readUTF();
+        final float startX = in.readFloat();
+        final float startY = in.readFloat();
+        final float[] points = new float[Recognizer.NUM_POINTS * 2];
+        for (int i = 0; i < points.length; i++)
+            points[i] = in.readFloat();
+
+        return new Sample(id, new Recognizer.UniStroke(name, points, null, startX, startY));
+    }
+
+    private static void writeAdd(final DataOutputStream out, final Sample sample) throws IOException {
+        out.writeByte(ADD);
+        out.writeLong(sample.id);
+        out.writeUTF(sample.stroke.name);
+        out.writeFloat(sample.stroke.startX);
+        out.writeFloat(sample.stroke.startY);
+        for (final float value : sample.stroke.points)
+            out.writeFloat(value);
+    }
+
+    private static void close(final Closeable stream) {
+        try {
+            if (stream != null)
+                stream.close();
+        } catch (IOException e) {
+            Log.e(TAG, "error closing player templates", e);
+        }
+    }
+}
@@ -0,0 +1,1115 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Created by marc on 4/26/14.
+*
+* Strokes are handled as packed float arrays of interleaved x,y pairs so that
+* recognition can run against buffers owned by the recognizer instead of
+* allocating new points at every step. Nothing here depends on android, so
+* the same code compiles the template asset at build time, see TemplateStore.
+* The PointF adapters for the ui live in ui.Strokes.
+*
+* Every template carries the distances of its normalized points from the
+* centroid. Those do not change under rotation, so they give a cheap lower
+* bound on both the $1 and the Protractor distance, which recognize uses to
+* visit templates best-first and stop once no remaining template can win.
+*
+* Recognition runs in one of three modes: Protractor, the golden section
+* search of the original $1, or a hybrid that ranks every template with
+* Protractor and only runs the golden section search on the best few.
+*
+* Sets too large to scan can be searched through a TemplateIndex, which
+* narrows the scan to the templates of a few clusters.
+*
+* Strokes are matched at one of several tiers of resolution, see Tier. A
+* recognizer and its templates are for a single tier, TieredRecognizer picks
+* between them to stay within a latency budget.
+*
+* Large template sets can be split across cores. Ties are broken on the
+* (bound, index) ordering in every path, so the parallel result is always the
+* one the serial scan would find.
+*/
+public class Recognizer {
+
+    private static final String TAG = Log.buildTag(Recognizer.class);
+
+    public static final int NUM_POINTS = 64; // of the STANDARD tier
+    static final float ORIGIN_X = 0;
+    static final float ORIGIN_Y = 0;
+    static final float SQUARE_SIZE = 250f;
+    static final float angleRange = deg2Rad(45);
+    static final float PHI = (float) (0.5f * (-1.0f + Math.sqrt(5f))); // Golden Ratio
+
+    static final int DEFAULT_SHORTLIST_SIZE = 3;
+
+    // below this many templates handing work to other threads costs more
+    // than it saves
+    static final int PARALLEL_THRESHOLD = 256;
+
+    // recognitions the rolling cost is the median of
+    static final int COST_WINDOW = 16;
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sExecutor;
+
+    private final Tier mTier;
+    private final TemplateStore mStore;
+    private boolean mLoaded;
+    final List<UniStroke> mUnistrokes = new ArrayList<UniStroke>();
+
+    // scratch buffers reused across calls to recognize, a recognizer must
+    // only be used from one thread at a time
+    private final float[] mPoints;
+    private final float[] mVector;
+    private final float[] mRadii;
+    private float mMagnitude;
+    private final Search mSearch;
+    private final Result mResult = new Result();
+
+    private boolean mParallel;
+    private Search[] mWorkers = new Search[0];
+    private final List<Search> mJobs = new ArrayList<Search>();
+    private final AtomicInteger mSharedBest = new AtomicInteger();
+    private float mSeedBound;
+
+    private TemplateIndex mIndex;
+    private int[] mCandidates = new int[0];
+    private int mCandidateCount;
+
+    private float mStartCosine = Float.NEGATIVE_INFINITY;
+    private float mStartX, mStartY;
+
+    private final long[] mCosts = new long[COST_WINDOW];
+    private final long[] mSortedCosts = new long[COST_WINDOW];
+    private int mCostCount;
+    private int mRecognitions;
+
+    /**
+     * How finely strokes are matched. Finer tiers resample strokes to more
+     * points and search the rotation in smaller steps, each costing about
+     * twice as much as the one before.
+     */
+    public enum Tier {
+        COARSE(32, 4),
+        STANDARD(NUM_POINTS, 2),
+        FINE(128, 1);
+
+        public final int numPoints;
+        final float anglePrecision;
+
+        Tier(final int numPoints, final float anglePrecisionDegrees) {
+            this.numPoints = numPoints;
+            this.anglePrecision = deg2Rad(anglePrecisionDegrees);
+        }
+
+        static Tier of(final int numPoints) {
+            for (final Tier tier : values())
+                if (tier.numPoints == numPoints)
+                    return tier;
+            throw new IllegalArgumentException("no tier has " + numPoints + " points");
+        }
+    }
+
+    /**
+     * A normalized template. Templates hold no reference to a recognizer, so
+     * one set can be shared by every recognizer of its tier in the process.
+     */
+    public static class UniStroke {
+        public final String name;
+        final float[] points;
+        final float[] vector;
+        private final float[] radii;
+        private final float magnitude;
+        final float startX, startY; // unit vector, 0 if unknown
+
+        public UniStroke(final String name, final float[] rawPoints, final int count) {
+            this(name, rawPoints, count, Tier.STANDARD);
+        }
+
+        public UniStroke(final String name, final float[] rawPoints, final int count, final Tier tier) {
+            this(name, resample(rawPoints, count, tier.numPoints, new float[tier.numPoints * 2]));
+        }
+
+        private UniStroke(final String name, final float[] resampled) {
+            this(name, resampled, startX(resampled), startY(resampled));
+        }
+
+        private UniStroke(final String name, final float[] resampled, final float startX, final float startY) {
+            this(name, normalizeResampled(resampled), null, startX, startY);
+        }
+
+        /**
+         * Wraps points that are already normalized, as read back from the
+         * template asset. The vector is derived when not given.
+         */
+        UniStroke(final String name, final float[] points, final float[] vector) {
+            this(name, points, vector, 0, 0);
+        }
+
+        UniStroke(final String name, final float[] points, final float[] vector, final float startX, final float startY) {
+            final int count = points.length / 2;
+            this.name = name;
+            this.points = points;
+            this.vector = vector != null ? vector : vectorize(points, count, new float[count * 2]); // for Protractor
+            this.radii = radii(points, count, new float[count]);
+            this.magnitude = magnitude(points, count);
+            this.startX = startX;
+            this.startY = startY;
+        }
+
+        public Tier getTier() {
+            return Tier.of(points.length / 2);
+        }
+
+        /**
+         * This template normalized for another tier, from its own normalized
+         * points. Used for templates only stored at one tier, such as player
+         * samples.
+         */
+        public UniStroke toTier(final Tier tier) {
+            final int count = points.length / 2;
+            if (count == tier.numPoints)
+                return this;
+
+            final float[] resampled = resample(points, count, tier.numPoints, new float[tier.numPoints * 2]);
+            return new UniStroke(name, normalizeResampled(resampled), null, startX, startY);
+        }
+    }
+
+    /**
+     * The best match for a stroke. The instance is owned by the recognizer and
+     * is overwritten by the next call to recognize.
+     */
+    public static class Result {
+        public UniStroke stroke;
+        public float score;
+    }
+
+    public enum Mode {
+        PROTRACTOR,     // closed form cosine distance, fastest
+        GOLDEN_SECTION, // original $1 search over the rotation
+        HYBRID          // Protractor shortlist refined with the $1 search
+    }
+
+    /**
+     * Recognizes against the process wide templates, which are loaded on
+     * first use.
+     */
+    public Recognizer() {
+        this(Tier.STANDARD);
+    }
+
+    public Recognizer(final Tier tier) {
+        this(tier, TemplateStore.getDefault());
+    }
+
+    /**
+     * Recognizes against templates of the STANDARD tier.
+     */
+    public Recognizer(final List<UniStroke> templates) {
+        this(Tier.STANDARD, templates);
+    }
+
+    public Recognizer(final Tier tier, final List<UniStroke> templates) {
+        this(tier, (TemplateStore) null);
+        for (final UniStroke uni : templates)
+            insert(uni);
+        mLoaded = true;
+    }
+
+    private Recognizer(final Tier tier, final TemplateStore store) {
+        mTier = tier;
+        mStore = store;
+        mPoints = new float[tier.numPoints * 2];
+        mVector = new float[tier.numPoints * 2];
+        mRadii = new float[tier.numPoints];
+        mSearch = new Search();
+        setShortlistSize(DEFAULT_SHORTLIST_SIZE);
+    }
+
+    public Tier getTier() {
+        return mTier;
+    }
+
+    /**
+     * Number of Protractor candidates the HYBRID mode refines with the
+     * golden section search.
+     */
+    public void setShortlistSize(final int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("shortlist size must be positive");
+
+        mSearch.setShortlistSize(k);
+        for (final Search worker : mWorkers)
+            worker.setShortlistSize(k);
+    }
+
+    public int getShortlistSize() {
+        return mSearch.shortlist.length;
+    }
+
+    /**
+     * Splits the template scan across cores once there are at least
+     * PARALLEL_THRESHOLD templates.
+     */
+    public void setParallel(final boolean parallel) {
+        mParallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return mParallel;
+    }
+
+    /**
+     * Only matches the templates the index picks for a stroke instead of
+     * scanning all of them. The index must be built over the templates of
+     * this recognizer, in the same order, and is not shared with any other
+     * recognizer. Pass null to scan every template again.
+     */
+    public void setIndex(final TemplateIndex index) {
+        mIndex = index;
+    }
+
+    public TemplateIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Skips templates whose start direction differs from the stroke's by
+     * more than radians. Matching is otherwise invariant to rotation, so
+     * this is what tells apart templates that only differ by a turn, like x
+     * and plus. Templates read back already normalized carry no start
+     * direction and are never skipped.
+     */
+    public void setStartAngleLimit(final float radians) {
+        mStartCosine = (float) Math.cos(radians);
+    }
+
+    public Result recognize(final float[] rawPoints, final int count, final Mode mode) {
+        return recognize(rawPoints, count, mode, null);
+    }
+
+    /**
+     * Recognizes a stroke, measuring the seed template first when one is
+     * given. A good seed, such as the leader of a streaming session, lets the
+     * scan stop almost immediately. Only templates strictly worse than the
+     * seed are skipped, so the result is the same as without it.
+     */
+    Result recognize(final float[] rawPoints, final int count, final Mode mode, final UniStroke seed) {
+        final long start = System.nanoTime();
+
+        if (!prepare(rawPoints, count))
+            return null;
+
+        final Result result;
+        switch (mode) {
+            case PROTRACTOR:
+                if (seed != null && seedMatches(seed))
+                    mSeedBound = 1f - (float) Math.cos(optimalCosineDistance(seed.vector, mVector));
+                result = shortlist(1) == 0 ? null : result(mSearch.shortlist[0], mSearch.shortlistDistance[0]);
+                break;
+
+            case HYBRID:
+                final int n = shortlist(mSearch.shortlist.length);
+                mSearch.goldenSection(mSearch.shortlist, 0, n);
+                result = result(mSearch.best, mSearch.bestDistance);
+                break;
+
+            default:
+                if (seed != null && seedMatches(seed))
+                    lowerSharedBest(distanceAtBestAngle(mPoints, seed, -angleRange, +angleRange, mTier.anglePrecision, mSearch.rotated));
+                goldenSection();
+                result = result(mSearch.best, mSearch.bestDistance);
+                break;
+        }
+
+        mCosts[mRecognitions % COST_WINDOW] = System.nanoTime() - start;
+        mCostCount = Math.min(mCostCount + 1, COST_WINDOW);
+        mRecognitions++;
+
+        return result;
+    }
+
+    /**
+     * Median time in nanos of the latest recognize calls since the last
+     * resetCost, or 0 if there were none. The median passes over the odd
+     * call stalled by a collection.
+     */
+    public long getCost() {
+        if (mCostCount == 0)
+            return 0;
+
+        for (int i = 0; i < mCostCount; i++)
+            mSortedCosts[i] = mCosts[(mRecognitions - 1 - i) % COST_WINDOW];
+        Arrays.sort(mSortedCosts, 0, mCostCount);
+        return mSortedCosts[mCostCount / 2];
+    }
+
+    /**
+     * Number of calls the cost is taken over, at most COST_WINDOW.
+     */
+    public int getCostCount() {
+        return mCostCount;
+    }
+
+    public void resetCost() {
+        mCostCount = 0;
+    }
+
+    /**
+     * Number of strokes recognized.
+     */
+    public int getRecognitionCount() {
+        return mRecognitions;
+    }
+
+    /**
+     * Ranks the shortlist size best templates for a stroke with Protractor
+     * and returns how many were found, see getCandidate.
+     */
+    public int rankCandidates(final float[] rawPoints, final int count) {
+        if (!prepare(rawPoints, count))
+            return 0;
+
+        return shortlist(mSearch.shortlist.length);
+    }
+
+    public UniStroke getCandidate(final int i) {
+        return mUnistrokes.get(mSearch.shortlist[i]);
+    }
+
+    public float getCandidateScore(final int i) {
+        return 1f / mSearch.shortlistDistance[i];
+    }
+
+    public int getTemplateCount() {
+        loadTemplates();
+        return mUnistrokes.size();
+    }
+
+    /**
+     * Adds a template, such as a player's own sample of a gesture. The
+     * vectors, bounds and index are updated in place, so this costs about as
+     * much as recognizing a stroke however many templates there are.
+     */
+    public void addTemplate(final UniStroke uni) {
+        loadTemplates();
+        insert(uni);
+    }
+
+    /**
+     * Removes a template added before or loaded with the recognizer. The last
+     * template takes its place, so the order of the templates changes.
+     * Returns false if the template is not known.
+     */
+    public boolean removeTemplate(final UniStroke uni) {
+        loadTemplates();
+
+        final int size = mUnistrokes.size();
+        for (int i = 0; i < size; i++) {
+            if (mUnistrokes.get(i) == uni) {
+                removeAt(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void insert(final UniStroke uni) {
+        if (uni.points.length != mTier.numPoints * 2)
+            throw new IllegalArgumentException(uni.name + " has " + uni.points.length / 2 + " points, " + mTier + " needs " + mTier.numPoints);
+
+        mUnistrokes.add(uni);
+        if (mIndex != null)
+            mIndex.add(mUnistrokes, mUnistrokes.size() - 1);
+    }
+
+    private void removeAt(final int i) {
+        if (mIndex != null)
+            mIndex.remove(mUnistrokes, i);
+
+        final int last = mUnistrokes.size() - 1;
+        mUnistrokes.set(i, mUnistrokes.get(last));
+        mUnistrokes.remove(last);
+    }
+
+    private void loadTemplates() {
+        if (mLoaded)
+            return;
+
+        final List<UniStroke> templates = mStore.getTemplates(mTier);
+        if (templates != null) {
+            for (final UniStroke uni : templates)
+                insert(uni);
+            mLoaded = true;
+        }
+    }
+
+    private boolean prepare(final float[] rawPoints, final int count) {
+        loadTemplates();
+        if (count < 1 || mUnistrokes.size() == 0)
+            return false;
+
+        final int numPoints = mTier.numPoints;
+        resample(rawPoints, count, numPoints, mPoints);
+        mStartX = startX(mPoints);
+        mStartY = startY(mPoints);
+        final float[] points = normalizeResampled(mPoints);
+        vectorize(points, numPoints, mVector); // for Protractor
+        radii(points, numPoints, mRadii);
+        mMagnitude = magnitude(points, numPoints);
+        if (mIndex != null)
+            collectCandidates();
+        mSharedBest.set(Float.floatToIntBits(Float.POSITIVE_INFINITY));
+        mSeedBound = Float.POSITIVE_INFINITY;
+        return true;
+    }
+
+    private void collectCandidates() {
+        final int size = mUnistrokes.size();
+        if (mIndex.getTemplateCount() != size)
+            throw new IllegalStateException("index is for " + mIndex.getTemplateCount() + " templates, have " + size);
+
+        if (mCandidates.length < size)
+            mCandidates = new int[size];
+
+        mCandidateCount = mIndex.collect(mVector, mCandidates);
+    }
+
+    /**
+     * A seed only prunes the scan if it is one of the templates scanned,
+     * otherwise it could hide every candidate.
+     */
+    private boolean seedMatches(final UniStroke seed) {
+        if (!startMatches(seed))
+            return false;
+
+        if (mIndex == null)
+            return true;
+
+        for (int j = 0; j < mCandidateCount; j++)
+            if (mUnistrokes.get(mCandidates[j]) == seed)
+                return true;
+
+        return false;
+    }
+
+    private boolean startMatches(final UniStroke uni) {
+        if (mStartCosine == Float.NEGATIVE_INFINITY || (uni.startX == 0 && uni.startY == 0))
+            return true;
+
+        return uni.startX * mStartX + uni.startY * mStartY >= mStartCosine;
+    }
+
+    private Result result(final int u, final float b) {
+        if (u == -1)
+            return null;
+
+        mResult.stroke = mUnistrokes.get(u);
+        mResult.score = 1f / b;
+        return mResult;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(CORES, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "recognizer-" + (++mCount));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sExecutor;
+    }
+
+    private int partitions() {
+        final int size = mUnistrokes.size();
+        if (!mParallel || CORES < 2 || size < PARALLEL_THRESHOLD)
+            return 1;
+
+        if (mWorkers.length < CORES) {
+            mWorkers = new Search[CORES];
+            for (int i = 0; i < CORES; i++) {
+                mWorkers[i] = new Search();
+                mWorkers[i].setShortlistSize(mSearch.shortlist.length);
+            }
+        }
+
+        return CORES;
+    }
+
+    /**
+     * Runs the prepared workers on the executor. Returns false if they could
+     * not all complete, in which case the caller falls back to the serial scan.
+     */
+    private boolean runWorkers(final int partitions, final int task, final int k) {
+        final int size = mUnistrokes.size();
+
+        mJobs.clear();
+        for (int p = 0; p < partitions; p++) {
+            final Search worker = mWorkers[p];
+            worker.task = task;
+            worker.k = k;
+            worker.from = size * p / partitions;
+            worker.to = size * (p + 1) / partitions;
+            mJobs.add(worker);
+        }
+
+        try {
+            for (final Future<Void> future : getExecutor().invokeAll(mJobs))
+                future.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "interrupted during parallel match", e);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "error during parallel match", e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Collects the k templates with the least Protractor distance into the
+     * shortlist of mSearch, best first, and returns how many were found.
+     */
+    private int shortlist(final int k) {
+        if (mIndex != null)
+            return mSearch.shortlist(k, mCandidates, 0, mCandidateCount);
+
+        final int size = mUnistrokes.size();
+        final int partitions = partitions();
+
+        if (partitions < 2 || !runWorkers(partitions, Search.SHORTLIST, k))
+            return mSearch.shortlist(k, null, 0, size);
+
+        mSearch.count = 0;
+        for (int p = 0; p < partitions; p++) {
+            final Search worker = mWorkers[p];
+            for (int j = 0; j < worker.count; j++)
+                mSearch.offer(k, worker.shortlist[j], worker.shortlistDistance[j], worker.shortlistKey[j]);
+        }
+
+        return mSearch.count;
+    }
+
+    /**
+     * Runs the golden section search over every template and leaves the best
+     * match in mSearch.
+     */
+    private void goldenSection() {
+        if (mIndex != null) {
+            mSearch.goldenSection(mCandidates, 0, mCandidateCount);
+            return;
+        }
+
+        final int size = mUnistrokes.size();
+        final int partitions = partitions();
+
+        if (partitions < 2 || !runWorkers(partitions, Search.GOLDEN_SECTION, 0)) {
+            mSearch.goldenSection(null, 0, size);
+            return;
+        }
+
+        mSearch.best = -1;
+        mSearch.bestDistance = Float.POSITIVE_INFINITY;
+        for (int p = 0; p < partitions; p++) {
+            final Search worker = mWorkers[p];
+            if (worker.best != -1 && better(worker.bestDistance, worker.bestKey, mSearch.bestDistance, mSearch.bestKey)) {
+                mSearch.best = worker.best;
+                mSearch.bestDistance = worker.bestDistance;
+                mSearch.bestKey = worker.bestKey;
+            }
+        }
+    }
+
+    /**
+     * Lower distance wins, equal distances go to the template the serial scan
+     * would have visited first.
+     */
+    private static boolean better(final float d1, final long key1, final float d2, final long key2) {
+        return d1 < d2 || (d1 == d2 && key1 < key2);
+    }
+
+    /**
+     * Search state over a range of templates. The recognizer owns one for the
+     * serial path and one per core for the parallel path, so no scratch
+     * buffers are shared between threads. The candidate stroke is only read.
+     */
+    final class Search implements Callable<Void> {
+        static final int SHORTLIST = 0;
+        static final int GOLDEN_SECTION = 1;
+
+        final float[] rotated = new float[mTier.numPoints * 2];
+        long[] order = new long[0];
+
+        int[] shortlist;
+        float[] shortlistDistance;
+        long[] shortlistKey;
+        int count;
+
+        int best;
+        float bestDistance;
+        long bestKey;
+
+        // work assigned by runWorkers
+        int task, k, from, to;
+
+        void setShortlistSize(final int k) {
+            shortlist = new int[k];
+            shortlistDistance = new float[k];
+            shortlistKey = new long[k];
+        }
+
+        @Override
+        public Void call() {
+            if (task == SHORTLIST)
+                shortlist(k, null, from, to);
+            else
+                goldenSection(null, from, to);
+            return null;
+        }
+
+        /**
+         * Heaps the candidate templates, or the templates themselves when
+         * candidates is null, between from and to by their lower bound and
+         * returns how many passed the start direction check. Entries are
+         * packed as (bound bits, index) so the heap works on primitives.
+         * The scan takes them out best bound first with next and usually
+         * stops after a few, so the rest are never put in order.
+         */
+        int rank(final boolean cosine, final int[] candidates, final int from, final int to) {
+            if (order.length < to - from)
+                order = new long[to - from];
+
+            int n = 0;
+            for (int j = from; j < to; j++) {
+                final int i = candidates != null ? candidates[j] : j;
+                final UniStroke uni = mUnistrokes.get(i);
+                if (!startMatches(uni))
+                    continue;
+
+                float bound = cosine ?
+                        1f - radialSimilarity(mRadii, mMagnitude, uni.radii, uni.magnitude) :
+                        radialDistance(mRadii, uni.radii, mTier.numPoints);
+                if (!(bound > 0))
+                    bound = 0;
+                order[n++] = ((long) Float.floatToIntBits(bound) << 32) | i;
+            }
+
+            for (int j = n / 2 - 1; j >= 0; j--)
+                siftDown(order[j], j, n);
+            return n;
+        }
+
+        /**
+         * Takes the entry with the least bound out of a heap of n entries.
+         */
+        long next(final int n) {
+            final long top = order[0];
+            if (n > 1)
+                siftDown(order[n - 1], 0, n - 1);
+            return top;
+        }
+
+        private void siftDown(final long entry, int j, final int n) {
+            for (int child = 2 * j + 1; child < n; child = 2 * j + 1) {
+                if (child + 1 < n && order[child + 1] < order[child])
+                    child++;
+                if (order[child] >= entry)
+                    break;
+                order[j] = order[child];
+                j = child;
+            }
+            order[j] = entry;
+        }
+
+        /**
+         * Adds a template to the shortlist if it is among the best k so far.
+         */
+        void offer(final int k, final int i, final float d, final long key) {
+            if (count == k && !better(d, key, shortlistDistance[count - 1], shortlistKey[count - 1]))
+                return;
+
+            int pos = count < k ? count++ : count - 1;
+            while (pos > 0 && better(d, key, shortlistDistance[pos - 1], shortlistKey[pos - 1])) {
+                shortlist[pos] = shortlist[pos - 1];
+                shortlistDistance[pos] = shortlistDistance[pos - 1];
+                shortlistKey[pos] = shortlistKey[pos - 1];
+                pos--;
+            }
+
+            shortlist[pos] = i;
+            shortlistDistance[pos] = d;
+            shortlistKey[pos] = key;
+        }
+
+        /**
+         * Fills the shortlist with the k candidate templates, or templates
+         * when candidates is null, between from and to that have the least
+         * Protractor distance.
+         */
+        int shortlist(final int k, final int[] candidates, final int from, final int to) {
+            final int n = rank(true, candidates, from, to);
+
+            count = 0;
+            float cutoff = Float.POSITIVE_INFINITY;
+            for (int left = n; left > 0; left--) // for each unistroke, best bound first
+            {
+                final long entry = next(left);
+                final float bound = boundOf(entry);
+                if (bound >= cutoff || (k == 1 && bound > mSeedBound))
+                    break; // nothing left can make the shortlist
+
+                final int i = indexOf(entry);
+                final float d = optimalCosineDistance(mUnistrokes.get(i).vector, mVector);
+                offer(k, i, d, entry);
+
+                if (count == k)
+                    cutoff = 1f - (float) Math.cos(shortlistDistance[count - 1]);
+            }
+
+            return count;
+        }
+
+        /**
+         * Runs the golden section search over the candidate templates, or the
+         * templates themselves when candidates is null, between from and to.
+         * Stops early once the bound passes the best of any partition.
+         */
+        void goldenSection(final int[] candidates, final int from, final int to) {
+            final int n = rank(false, candidates, from, to);
+
+            best = -1;
+            bestDistance = Float.POSITIVE_INFINITY;
+            for (int left = n; left > 0; left--) // for each unistroke, best bound first
+            {
+                final long entry = next(left);
+                final float bound = boundOf(entry);
+                if (bound >= bestDistance || bound > Float.intBitsToFloat(mSharedBest.get()))
+                    break; // nothing left can beat the best
+
+                final int i = indexOf(entry);
+                final float d = distanceAtBestAngle(mPoints, mUnistrokes.get(i), -angleRange, +angleRange, mTier.anglePrecision, rotated);
+                if (d < bestDistance) {
+                    best = i; // unistroke
+                    bestDistance = d; // best (least) distance
+                    bestKey = entry;
+                    lowerSharedBest(d);
+                }
+            }
+        }
+    }
+
+    private void lowerSharedBest(final float d) {
+        final int bits = Float.floatToIntBits(d);
+        int current;
+        do {
+            current = mSharedBest.get();
+            if (bits >= current)
+                return;
+        } while (!mSharedBest.compareAndSet(current, bits));
+    }
+
+    private static float boundOf(final long entry) {
+        return Float.intBitsToFloat((int) (entry >>> 32));
+    }
+
+    private static int indexOf(final long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Resamples, rotates to the indicative angle, scales and translates a raw
+     * stroke of count points into dst, as many points as dst holds.
+     */
+    public static float[] normalize(final float[] rawPoints, final int count, final float[] dst) {
+        resample(rawPoints, count, dst.length / 2, dst);
+        return normalizeResampled(dst);
+    }
+
+    /**
+     * The steps of normalize after resampling, in place.
+     */
+    static float[] normalizeResampled(final float[] points) {
+        final int count = points.length / 2;
+        float radians = indicativeAngle(points, count);
+        rotateBy(points, count, -radians, points);
+        scaleTo(points, count, SQUARE_SIZE, points);
+        translateTo(points, count, ORIGIN_X, ORIGIN_Y, points);
+        return points;
+    }
+
+    // the start direction of a stroke runs from its first point to the one
+    // an eighth of the way along
+    private static int startIndex(final float[] resampled) {
+        return resampled.length / 16;
+    }
+
+    static float startX(final float[] resampled) {
+        final int s = startIndex(resampled);
+        final float dx = resampled[s * 2] - resampled[0];
+        final float d = distance(resampled[0], resampled[1], resampled[s * 2], resampled[s * 2 + 1]);
+        return d > 0 ? dx / d : 0;
+    }
+
+    static float startY(final float[] resampled) {
+        final int s = startIndex(resampled);
+        final float dy = resampled[s * 2 + 1] - resampled[1];
+        final float d = distance(resampled[0], resampled[1], resampled[s * 2], resampled[s * 2 + 1]);
+        return d > 0 ? dy / d : 0;
+    }
+
+    /**
+     * Golden section search for the angle with the least path distance. Each
+     * new probe is abandoned once it is known to lose against the probe it is
+     * compared with, so the search narrows exactly as it would unpruned.
+     */
+    static float distanceAtBestAngle(final float[] points, final UniStroke T, float a, float b, final float threshold, final float[] scratch) {
+        float x1 = PHI * a + (1f - PHI) * b;
+        float f1 = distanceAtAngle(points, T, x1, Float.POSITIVE_INFINITY, scratch);
+        float x2 = (1f - PHI) * a + PHI * b;
+        float f2 = distanceAtAngle(points, T, x2, f1, scratch);
+        while (Math.abs(b - a) > threshold) {
+            if (f1 < f2) {
+                b = x2;
+                x2 = x1;
+                f2 = f1;
+                x1 = PHI * a + (1 - PHI) * b;
+                f1 = distanceAtAngle(points, T, x1, f2, scratch);
+            } else {
+                a = x1;
+                x1 = x2;
+                f1 = f2;
+                x2 = (-PHI) * a + PHI * b;
+                f2 = distanceAtAngle(points, T, x2, f1, scratch);
+            }
+        }
+        return Math.min(f1, f2);
+    }
+
+    static float distanceAtAngle(final float[] points, final UniStroke T, final float radians, final float limit, final float[] scratch) {
+        final int count = T.points.length / 2;
+        final float[] newpoints = rotateBy(points, count, radians, scratch);
+        return pathDistance(newpoints, T.points, count, limit);
+    }
+
+    /**
+     * Lower bound on the path distance between two centered strokes at any
+     * rotation, since |p - q| >= ||p| - |q||.
+     */
+    static float radialDistance(final float[] radii1, final float[] radii2, final int count) {
+        float d = 0;
+        for (int i = 0; i < count; i++)
+            d += Math.abs(radii1[i] - radii2[i]);
+        return d / count;
+    }
+
+    /**
+     * Upper bound on the cosine similarity of two Protractor vectors at any
+     * rotation, each point pair contributes at most the product of its radii.
+     */
+    static float radialSimilarity(final float[] radii1, final float magnitude1, final float[] radii2, final float magnitude2) {
+        float s = 0;
+        for (int i = 0; i < radii1.length; i++)
+            s += radii1[i] * radii2[i];
+        return s / (magnitude1 * magnitude2);
+    }
+
+    static float optimalCosineDistance(final float[] v1, final float[] v2) {
+        float a = 0;
+        float b = 0;
+        for (int i = 0; i < v1.length; i += 2) {
+            a += v1[i] * v2[i] + v1[i + 1] * v2[i + 1];
+            b += v1[i] * v2[i + 1] - v1[i + 1] * v2[i];
+        }
+
+        float angle = (float) Math.atan(b / a);
+
+        // rounding can push an exact match just past 1, which acos turns into NaN
+        return (float) Math.acos(Math.min(1.0, a * Math.cos(angle) + b * Math.sin(angle)));
+    }
+
+    static float[] vectorize(final float[] points, final int count, final float[] dst) {
+        final float magnitude = magnitude(points, count);
+        for (int i = 0; i < count * 2; i++)
+            dst[i] = points[i] / magnitude;
+
+        return dst;
+    }
+
+    static float[] radii(final float[] points, final int count, final float[] dst) {
+        for (int i = 0; i < count; i++)
+            dst[i] = distance(ORIGIN_X, ORIGIN_Y, points[i * 2], points[i * 2 + 1]);
+        return dst;
+    }
+
+    static float magnitude(final float[] points, final int count) {
+        float sum = 0;
+        for (int i = 0; i < count * 2; i++)
+            sum += points[i] * points[i];
+        return (float) Math.sqrt(sum);
+    }
+
+    public static float[] translateTo(final float[] points, final int count, final float x, final float y, final float[] dst) {
+        final float cx = centroidX(points, count);
+        final float cy = centroidY(points, count);
+        for (int i = 0; i < count; i++) {
+            dst[i * 2] = points[i * 2] + x - cx;
+            dst[i * 2 + 1] = points[i * 2 + 1] + y - cy;
+        }
+        return dst;
+    }
+
+    public static float[] scaleTo(final float[] points, final int count, final float scale, final float[] dst) {
+        float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY,
+                minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, points[i * 2]);
+            minY = Math.min(minY, points[i * 2 + 1]);
+            maxX = Math.max(maxX, points[i * 2]);
+            maxY = Math.max(maxY, points[i * 2 + 1]);
+        }
+
+        final float sx = scale / (maxX - minX);
+        final float sy = scale / (maxY - minY);
+        for (int i = 0; i < count; i++) {
+            dst[i * 2] = points[i * 2] * sx;
+            dst[i * 2 + 1] = points[i * 2 + 1] * sy;
+        }
+        return dst;
+    }
+
+    public static float[] rotateBy(final float[] points, final int count, final float radians, final float[] dst) {
+        final float cx = centroidX(points, count);
+        final float cy = centroidY(points, count);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        for (int i = 0; i < count; i++) {
+            final float px = points[i * 2] - cx;
+            final float py = points[i * 2 + 1] - cy;
+            dst[i * 2] = px * cos - py * sin + cx;
+            dst[i * 2 + 1] = px * sin + py * cos + cy;
+        }
+        return dst;
+    }
+
+    /**
+     * Resamples count points into exactly numPoints evenly spaced points in dst.
+     */
+    public static float[] resample(final float[] points, final int count, final int numPoints, final float[] dst) {
+        float I = pathLength(points, count) / (numPoints - 1);
+        float D = 0;
+
+        float px = points[0];
+        float py = points[1];
+        dst[0] = px;
+        dst[1] = py;
+        int n = 1;
+
+        for (int i = 1; i < count && n < numPoints; i++) {
+            final float cx = points[i * 2];
+            final float cy = points[i * 2 + 1];
+            float d = distance(px, py, cx, cy);
+            if ((D + d) >= I) {
+                float qx = px + ((I - D) / d) * (cx - px);
+                float qy = py + ((I - D) / d) * (cy - py);
+                dst[n * 2] = qx;
+                dst[n * 2 + 1] = qy;
+                n++;
+
+                // 'q' becomes the previous point and segment i is visited again
+                px = qx;
+                py = qy;
+                i--;
+
+                D = 0;
+            } else {
+                D += d;
+                px = cx;
+                py = cy;
+            }
+        }
+
+        // sometimes we fall a rounding-error short of adding the last point, so add it if so
+        for (; n < numPoints; n++) {
+            dst[n * 2] = points[(count - 1) * 2];
+            dst[n * 2 + 1] = points[(count - 1) * 2 + 1];
+        }
+
+        return dst;
+    }
+
+    static float indicativeAngle(final float[] points, final int count) {
+        return (float) Math.atan2(centroidY(points, count) - points[1], centroidX(points, count) - points[0]);
+    }
+
+    public static float centroidX(final float[] points, final int count) {
+        float x = 0;
+        for (int i = 0; i < count; i++)
+            x += points[i * 2];
+        return x / count;
+    }
+
+    public static float centroidY(final float[] points, final int count) {
+        float y = 0;
+        for (int i = 0; i < count; i++)
+            y += points[i * 2 + 1];
+        return y / count;
+    }
+
+    public static float pathLength(final float[] points, final int count) {
+        float d = 0;
+        for (int i = 1; i < count; i++)
+            d += distance(points[(i - 1) * 2], points[(i - 1) * 2 + 1], points[i * 2], points[i * 2 + 1]);
+        return d;
+    }
+
+    static float pathDistance(final float[] pts1, final float[] pts2, final int count) {
+        return pathDistance(pts1, pts2, count, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Mean point distance, abandoned as soon as the running sum guarantees a
+     * result above limit.
+     */
+    static float pathDistance(final float[] pts1, final float[] pts2, final int count, final float limit) {
+        final float max = limit * count;
+        float d = 0;
+        for (int i = 0; i < count; i++) {
+            d += distance(pts1[i * 2], pts1[i * 2 + 1], pts2[i * 2], pts2[i * 2 + 1]);
+            if (d > max)
+                break;
+        }
+        return d / count;
+    }
+
+    public static float distance(final float x1, final float y1, final float x2, final float y2) {
+        final float dx = x2 - x1;
+        final float dy = y2 - y1;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    static float deg2Rad(final float d) {
+        return (float) (d * Math.PI / 180.0);
+    }
+}
@@ -0,0 +1,174 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes a stroke while it is being drawn. Points are appended as touch
+ * events arrive and the candidates are re-ranked with Protractor each time the
+ * stroke has grown by UPDATE_GROWTH, so the current leader can be previewed
+ * and the final recognition starts from a good guess.
+ */
+public class RecognizerSession {
+
+    private static final String TAG = Log.buildTag(RecognizerSession.class);
+
+    static final int MIN_POINTS = 9;
+    static final float UPDATE_GROWTH = 0.1f;
+
+    private Recognizer mRecognizer;
+
+    private float[] mPoints = new float[1024];
+    private int mCount;
+    private float mLength;
+
+    private float mRankedLength;
+    private int mRankedCount;
+
+    private Recognizer.UniStroke[] mCandidates = new Recognizer.UniStroke[0];
+    private float[] mCandidateScores = new float[0];
+    private int mCandidateCount;
+    private final Recognizer.Result mResult = new Recognizer.Result();
+
+    public RecognizerSession(final Recognizer recognizer) {
+        mRecognizer = recognizer;
+    }
+
+    /**
+     * Recognizes with another recognizer, such as one of another tier. Only
+     * takes effect between strokes, before begin.
+     */
+    public void setRecognizer(final Recognizer recognizer) {
+        mRecognizer = recognizer;
+    }
+
+    public void begin() {
+        mCount = 0;
+        mLength = 0;
+        mRankedLength = 0;
+        mRankedCount = 0;
+        mCandidateCount = 0;
+    }
+
+    public void add(final float x, final float y) {
+        if (mPoints.length < (mCount + 1) * 2)
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+
+        if (mCount > 0)
+            mLength += Recognizer.distance(mPoints[(mCount - 1) * 2], mPoints[(mCount - 1) * 2 + 1], x, y);
+
+        mPoints[mCount * 2] = x;
+        mPoints[mCount * 2 + 1] = y;
+        mCount++;
+    }
+
+    /**
+     * Re-ranks the candidates if the stroke has grown enough since the last
+     * ranking. Returns true if the leader changed.
+     */
+    public boolean update() {
+        if (mCount < MIN_POINTS || mLength <= 0 || mLength < mRankedLength * (1f + UPDATE_GROWTH))
+            return false;
+
+        final Recognizer.UniStroke leader = getLeader();
+        rank();
+        return getLeader() != leader;
+    }
+
+    /**
+     * Ranks the candidates over every point so far, unless none arrived
+     * since the last ranking.
+     */
+    public void refresh() {
+        if (mCount >= MIN_POINTS && mLength > 0 && mRankedCount != mCount)
+            rank();
+    }
+
+    private void rank() {
+        final int n = mRecognizer.rankCandidates(mPoints, mCount);
+        if (mCandidates.length < n) {
+            mCandidates = new Recognizer.UniStroke[n];
+            mCandidateScores = new float[n];
+        }
+
+        for (int i = 0; i < n; i++) {
+            mCandidates[i] = mRecognizer.getCandidate(i);
+            mCandidateScores[i] = mRecognizer.getCandidateScore(i);
+        }
+
+        mCandidateCount = n;
+        mRankedLength = mLength;
+        mRankedCount = mCount;
+    }
+
+    /**
+     * Finishes the stroke. Nothing is recomputed for Protractor if no points
+     * arrived since the last ranking, otherwise the current leader seeds the
+     * final search.
+     */
+    public Recognizer.Result complete(final Recognizer.Mode mode) {
+        if (mCount < MIN_POINTS)
+            return null;
+
+        if (mode == Recognizer.Mode.PROTRACTOR && mRankedCount == mCount && mCandidateCount > 0) {
+            Log.d(TAG, "using ranked leader %s", mCandidates[0].name);
+            mResult.stroke = mCandidates[0];
+            mResult.score = mCandidateScores[0];
+            return mResult;
+        }
+
+        return mRecognizer.recognize(mPoints, mCount, mode, getLeader());
+    }
+
+    public Recognizer.UniStroke getLeader() {
+        return mCandidateCount > 0 ? mCandidates[0] : null;
+    }
+
+    public float getLeaderScore() {
+        return mCandidateCount > 0 ? mCandidateScores[0] : 0;
+    }
+
+    public int getCandidateCount() {
+        return mCandidateCount;
+    }
+
+    public Recognizer.UniStroke getCandidate(final int i) {
+        return mCandidates[i];
+    }
+
+    public float getCandidateScore(final int i) {
+        return mCandidateScores[i];
+    }
+
+    /**
+     * True if the last ranking filled the shortlist, so a template left out
+     * of it scores at most the last candidate.
+     */
+    public boolean isShortlistFull() {
+        return mCandidateCount > 0 && mCandidateCount >= mRecognizer.getShortlistSize();
+    }
+
+    /**
+     * The points of the stroke packed as x,y pairs, valid up to getCount.
+     * The array is owned by the session.
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * Copies the points of the stroke, packed as x,y pairs.
+     */
+    public float[] copyPoints() {
+        return Arrays.copyOf(mPoints, mCount * 2);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public float getLength() {
+        return mLength;
+    }
+}
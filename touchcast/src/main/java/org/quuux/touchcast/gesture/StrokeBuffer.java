@@ -0,0 +1,147 @@
+package org.quuux.touchcast.gesture;
+
+import java.util.Arrays;
+
+/**
+ * Captures a stroke as it is drawn. The raw points, the path length and an
+ * evenly spaced preview of the stroke are all updated as points are added,
+ * so the cost of an add only depends on the size of the batch.
+ *
+ * The preview is resampled at a fixed spacing. Once it holds twice the
+ * requested number of points every other point is dropped and the spacing
+ * doubles, which keeps it between one and two times that size however long
+ * the stroke gets. The last raw point is appended as a live tail.
+ *
+ * Points can carry the time they were sampled at, for recording strokes.
+ */
+public class StrokeBuffer {
+
+    private final int mPreviewSize;
+    private final float mInitialSpacing;
+
+    private float[] mPoints = new float[1024];
+    private long[] mTimes = new long[512];
+    private int mCount;
+    private float mLength;
+
+    private final float[] mPreview;
+    private int mPreviewCount;
+    private float mSpacing;
+    private float mTravelled; // along the path since the last preview point
+
+    public StrokeBuffer(final int previewSize, final float spacing) {
+        if (previewSize < 2 || spacing <= 0)
+            throw new IllegalArgumentException("preview needs at least 2 points and a positive spacing");
+
+        mPreviewSize = previewSize;
+        mInitialSpacing = spacing;
+        mPreview = new float[(previewSize * 2 + 1) * 2];
+        clear();
+    }
+
+    public void clear() {
+        mCount = 0;
+        mLength = 0;
+        mPreviewCount = 0;
+        mSpacing = mInitialSpacing;
+        mTravelled = 0;
+    }
+
+    public void add(final float x, final float y) {
+        add(x, y, 0);
+    }
+
+    public void add(final float x, final float y, final long time) {
+        if (mPoints.length < (mCount + 1) * 2) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+            mTimes = Arrays.copyOf(mTimes, mTimes.length * 2);
+        }
+
+        mPoints[mCount * 2] = x;
+        mPoints[mCount * 2 + 1] = y;
+        mTimes[mCount] = time;
+        mCount++;
+
+        if (mCount == 1) {
+            mPreview[0] = x;
+            mPreview[1] = y;
+            mPreviewCount = 1;
+            return;
+        }
+
+        float px = mPoints[(mCount - 2) * 2];
+        float py = mPoints[(mCount - 2) * 2 + 1];
+        float d = Recognizer.distance(px, py, x, y);
+        mLength += d;
+
+        while (d > 0 && mTravelled + d >= mSpacing) {
+            final float t = (mSpacing - mTravelled) / d;
+            px += t * (x - px);
+            py += t * (y - py);
+            emit(px, py);
+            d = Recognizer.distance(px, py, x, y);
+            mTravelled = 0;
+        }
+        mTravelled += d;
+    }
+
+    private void emit(final float x, final float y) {
+        if (mPreviewCount == mPreviewSize * 2) {
+            // the dropped last point sat one old spacing behind this one, so
+            // x,y is on the doubled grid
+            for (int i = 1; i < mPreviewSize; i++) {
+                mPreview[i * 2] = mPreview[i * 4];
+                mPreview[i * 2 + 1] = mPreview[i * 4 + 1];
+            }
+            mPreviewCount = mPreviewSize;
+            mSpacing *= 2;
+        }
+
+        mPreview[mPreviewCount * 2] = x;
+        mPreview[mPreviewCount * 2 + 1] = y;
+        mPreviewCount++;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public float getLength() {
+        return mLength;
+    }
+
+    /**
+     * The raw points packed as x,y pairs, valid up to getCount. The array is
+     * owned by the buffer.
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] copyPoints() {
+        return Arrays.copyOf(mPoints, mCount * 2);
+    }
+
+    /**
+     * The sample time of each point, 0 for points added without one.
+     */
+    public long[] copyTimes() {
+        return Arrays.copyOf(mTimes, mCount);
+    }
+
+    /**
+     * The preview packed as x,y pairs, valid up to getPreviewCount. The array
+     * is owned by the buffer and ends with the last raw point.
+     */
+    public float[] getPreview() {
+        if (mCount > 1) {
+            mPreview[mPreviewCount * 2] = mPoints[(mCount - 1) * 2];
+            mPreview[mPreviewCount * 2 + 1] = mPoints[(mCount - 1) * 2 + 1];
+        }
+        return mPreview;
+    }
+
+    public int getPreviewCount() {
+        return mCount > 1 ? mPreviewCount + 1 : mPreviewCount;
+    }
+}
@@ -0,0 +1,226 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raw strokes recorded from play, for measuring the recognizer offline, see
+ * BatchEvaluation. Each entry keeps every touch point with its time, the
+ * name the recognizer gave the stroke and the label the player confirmed,
+ * which is null for strokes that were never confirmed.
+ *
+ * Points are stored to 1/8 of a pixel as zigzag varint deltas from the
+ * previous point and times as varint millisecond deltas, which takes 3 to 5
+ * bytes a point instead of 16.
+ *
+ * Format: magic and version as big endian ints, then for each entry a flags
+ * byte, the label and recognized name if flagged, the recording time in
+ * epoch millis as a big endian long, the point count as a varint and the
+ * points and times. A torn last entry is dropped when reading.
+ */
+public class StrokeCorpus {
+
+    private static final String TAG = Log.buildTag(StrokeCorpus.class);
+
+    static final int MAGIC = 0x54435343; // TCSC
+    static final int VERSION = 1;
+
+    static final int HAS_LABEL = 1;
+    static final int HAS_RECOGNIZED = 2;
+
+    static final float POINT_SCALE = 8;
+
+    public static class Entry {
+        public final String label;       // confirmed by the player, or null
+        public final String recognized;  // what the recognizer said, or null
+        public final long recordedAt;    // epoch millis
+        public final float[] points;     // raw x,y pairs
+        public final int[] times;        // millis since the first point
+        public final int count;
+
+        public Entry(final String label, final String recognized, final long recordedAt, final float[] points, final int[] times, final int count) {
+            if (points.length < count * 2 || times.length < count)
+                throw new IllegalArgumentException("entry needs " + count + " points and times");
+
+            this.label = label;
+            this.recognized = recognized;
+            this.recordedAt = recordedAt;
+            this.points = points;
+            this.times = times;
+            this.count = count;
+        }
+
+        public Entry withLabel(final String label) {
+            return new Entry(label, recognized, recordedAt, points, times, count);
+        }
+
+        public Entry withRecognized(final String recognized) {
+            return new Entry(label, recognized, recordedAt, points, times, count);
+        }
+
+        /**
+         * Builds an entry from sample times in any clock, such as the event
+         * times of the touch events.
+         */
+        public static Entry fromSampleTimes(final String label, final String recognized, final long recordedAt,
+                                            final float[] points, final long[] sampleTimes, final int count) {
+            final int[] times = new int[count];
+            for (int i = 0; i < count; i++)
+                times[i] = (int) Math.max(0, sampleTimes[i] - sampleTimes[0]);
+            return new Entry(label, recognized, recordedAt, points, times, count);
+        }
+    }
+
+    /**
+     * Appends entries to a corpus file, writing the header if the file is
+     * new. Each entry is flushed as it is written.
+     */
+    public static class Writer {
+        private final File mFile;
+
+        public Writer(final File file) {
+            mFile = file;
+        }
+
+        public synchronized void write(final Entry entry) {
+            final boolean header = !mFile.exists() || mFile.length() == 0;
+
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+                if (header)
+                    writeHeader(out);
+                StrokeCorpus.write(out, entry);
+                out.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "error recording stroke", e);
+            } finally {
+                try {
+                    if (out != null)
+                        out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "error closing corpus", e);
+                }
+            }
+        }
+    }
+
+    public static List<Entry> read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a stroke corpus");
+
+        final int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported stroke corpus version " + version);
+
+        final List<Entry> rv = new ArrayList<Entry>();
+        try {
+            int flags;
+            while ((flags = in.read()) != -1)
+                rv.add(readEntry(in, flags));
+        } catch (EOFException e) {
+            Log.w(TAG, "corpus ends in a torn entry after %d entries, dropping it", rv.size());
+        }
+
+        return rv;
+    }
+
+    public static void write(final OutputStream stream, final List<Entry> entries) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        writeHeader(out);
+        for (final Entry entry : entries)
+            write(out, entry);
+        out.flush();
+    }
+
+    private static void writeHeader(final DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static Entry readEntry(final DataInputStream in, final int flags) throws IOException {
+        final String label = (flags & HAS_LABEL) != 0 ? in.readUTF() : null;
+        final String recognized = (flags & HAS_RECOGNIZED) != 0 ? in.readUTF() : null;
+        final long recordedAt = in.readLong();
+
+        final int count = readVarint(in);
+        final float[] points = new float[count * 2];
+        final int[] times = new int[count];
+
+        int x = 0, y = 0, t = 0;
+        for (int i = 0; i < count; i++) {
+            x += unzigzag(readVarint(in));
+            y += unzigzag(readVarint(in));
+            t += readVarint(in);
+            points[i * 2] = x / POINT_SCALE;
+            points[i * 2 + 1] = y / POINT_SCALE;
+            times[i] = t;
+        }
+
+        return new Entry(label, recognized, recordedAt, points, times, count);
+    }
+
+    private static void write(final DataOutputStream out, final Entry entry) throws IOException {
+        out.writeByte((entry.label != null ? HAS_LABEL : 0) | (entry.recognized != null ? HAS_RECOGNIZED : 0));
+        if (entry.label != null)
+            out.writeUTF(entry.label);
+        if (entry.recognized != null)
+            out.writeUTF(entry.recognized);
+        out.writeLong(entry.recordedAt);
+
+        writeVarint(out, entry.count);
+        int x = 0, y = 0, t = 0;
+        for (int i = 0; i < entry.count; i++) {
+            final int qx = Math.round(entry.points[i * 2] * POINT_SCALE);
+            final int qy = Math.round(entry.points[i * 2 + 1] * POINT_SCALE);
+            final int qt = Math.max(t, entry.times[i]);
+            writeVarint(out, zigzag(qx - x));
+            writeVarint(out, zigzag(qy - y));
+            writeVarint(out, qt - t);
+            x = qx;
+            y = qy;
+            t = qt;
+        }
+    }
+
+    private static int zigzag(final int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(final int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(final DataOutputStream out, int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    private static int readVarint(final DataInputStream in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,571 @@
+package org.quuux.touchcast.gesture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A tree of template clusters for sets too large to scan, such as gesture
+ * packs with thousands of templates. Each level splits its templates into at
+ * most branching clusters with k-medoids over the Protractor distance, down
+ * to leaves of at most leafSize templates. A stroke descends the tree
+ * keeping the beam closest cluster medoids at each level, and only the
+ * templates in the leaves it reaches are matched exactly.
+ *
+ * The tree is built offline by the tools module and read back next to its
+ * templates. Templates added or removed later are placed into or taken out
+ * of their leaf without touching the rest of the tree, and a leaf that grows
+ * past twice leafSize is clustered again on its own. An index holds scratch
+ * state for the descent and follows the template list of one recognizer, so
+ * each recognizer needs its own.
+ */
+public class TemplateIndex {
+
+    public static final int DEFAULT_BRANCHING = 8;
+    public static final int DEFAULT_LEAF_SIZE = 32;
+    public static final int DEFAULT_BEAM = 3;
+
+    static final int MAGIC = 0x54434958; // TCIX
+    static final int VERSION = 1;
+
+    static final int MAX_ITERATIONS = 10;
+
+    // medoid updates only try this many members of a large cluster
+    static final int MEDOID_SAMPLE = 64;
+
+    /**
+     * The medoid of a node is always one of the templates below it, so only
+     * the ancestors of a template's leaf can refer to it.
+     */
+    static final class Node {
+        Node parent;
+        int medoid = -1;   // template that stands for the node in its parent
+        float[] vector;    // of the medoid
+        Node[] children;   // null for a leaf
+        int[] members;     // leaf only
+        int size;
+    }
+
+    private final int mBranching;
+    private final int mLeafSize;
+    private Node mRoot;
+    private int mCount;
+    private Node[] mLeaves = new Node[0]; // by template
+    private int mBeam = DEFAULT_BEAM;
+
+    // scratch for collect
+    private Node[] mFrontier = new Node[0];
+    private Node[] mNext = new Node[0];
+    private float[] mNextDistance = new float[0];
+
+    private TemplateIndex(final int branching, final int leafSize) {
+        if (branching < 2)
+            throw new IllegalArgumentException("branching must be at least 2");
+        if (leafSize < 1)
+            throw new IllegalArgumentException("leaf size must be positive");
+
+        mBranching = branching;
+        mLeafSize = leafSize;
+    }
+
+    /**
+     * Clusters templates, the random seed makes the tree reproducible.
+     */
+    public static TemplateIndex build(final List<Recognizer.UniStroke> templates, final int branching, final int leafSize, final long seed) {
+        final TemplateIndex index = new TemplateIndex(branching, leafSize);
+
+        final int[] members = new int[templates.size()];
+        for (int i = 0; i < members.length; i++)
+            members[i] = i;
+
+        index.mCount = members.length;
+        index.mLeaves = new Node[members.length];
+        index.mRoot = index.build(templates, members, -1, new Random(seed));
+        return index;
+    }
+
+    public int getTemplateCount() {
+        return mCount;
+    }
+
+    /**
+     * Number of clusters kept at each level of the descent, higher finds
+     * the exhaustive best more often at the cost of matching more leaves.
+     */
+    public void setBeamWidth(final int beam) {
+        if (beam < 1)
+            throw new IllegalArgumentException("beam width must be positive");
+
+        mBeam = beam;
+    }
+
+    public int getBeamWidth() {
+        return mBeam;
+    }
+
+    public int getNodeCount() {
+        return count(mRoot);
+    }
+
+    public int getDepth() {
+        return depth(mRoot);
+    }
+
+    private static int count(final Node node) {
+        int n = 1;
+        if (node.children != null)
+            for (final Node child : node.children)
+                n += count(child);
+        return n;
+    }
+
+    private static int depth(final Node node) {
+        int d = 0;
+        if (node.children != null)
+            for (final Node child : node.children)
+                d = Math.max(d, depth(child));
+        return d + 1;
+    }
+
+    /**
+     * Writes the indexes of the templates in the leaves closest to a
+     * Protractor vector into candidates and returns how many there are.
+     * Candidates must hold getTemplateCount entries.
+     */
+    int collect(final float[] vector, final int[] candidates) {
+        int n = 0;
+
+        if (mFrontier.length < mBeam) {
+            mFrontier = new Node[mBeam];
+            mNext = new Node[mBeam];
+            mNextDistance = new float[mBeam];
+        }
+
+        mFrontier[0] = mRoot;
+        int frontier = 1;
+
+        while (frontier > 0) {
+            int next = 0;
+            for (int f = 0; f < frontier; f++) {
+                final Node node = mFrontier[f];
+                if (node.children == null) {
+                    System.arraycopy(node.members, 0, candidates, n, node.size);
+                    n += node.size;
+                    continue;
+                }
+
+                for (final Node child : node.children) {
+                    final float d = Recognizer.optimalCosineDistance(child.vector, vector);
+                    next = offer(child, d, next);
+                }
+            }
+
+            final Node[] t = mFrontier;
+            mFrontier = mNext;
+            mNext = t;
+            frontier = next;
+        }
+
+        return n;
+    }
+
+    /**
+     * Keeps the beam closest children in mNext, closest first.
+     */
+    private int offer(final Node node, final float d, int count) {
+        if (count == mBeam && !(d < mNextDistance[count - 1]))
+            return count;
+
+        int pos = count < mBeam ? count++ : count - 1;
+        while (pos > 0 && d < mNextDistance[pos - 1]) {
+            mNext[pos] = mNext[pos - 1];
+            mNextDistance[pos] = mNextDistance[pos - 1];
+            pos--;
+        }
+
+        mNext[pos] = node;
+        mNextDistance[pos] = d;
+        return count;
+    }
+
+    /**
+     * Adds the template at index i, which must be the next one after the
+     * templates already indexed, to the leaf with the closest medoids.
+     */
+    void add(final List<Recognizer.UniStroke> templates, final int i) {
+        if (i != mCount)
+            throw new IllegalArgumentException("template " + i + " added to an index of " + mCount);
+
+        final float[] vector = templates.get(i).vector;
+
+        Node node = mRoot;
+        while (node.children != null) {
+            Node closest = null;
+            float best = Float.POSITIVE_INFINITY;
+            for (final Node child : node.children) {
+                final float d = Recognizer.optimalCosineDistance(child.vector, vector);
+                if (closest == null || d < best) {
+                    closest = child;
+                    best = d;
+                }
+            }
+            node = closest;
+        }
+
+        if (node.members.length == node.size)
+            node.members = Arrays.copyOf(node.members, Math.max(4, node.size * 2));
+        node.members[node.size++] = i;
+
+        if (mLeaves.length == mCount)
+            mLeaves = Arrays.copyOf(mLeaves, Math.max(16, mCount * 2));
+        mLeaves[i] = node;
+        mCount++;
+
+        if (node.size > mLeafSize * 2)
+            split(templates, node);
+    }
+
+    /**
+     * Removes the template at index i, after which the last template takes
+     * its index. Call before the template list itself is changed.
+     */
+    void remove(final List<Recognizer.UniStroke> templates, final int i) {
+        if (i < 0 || i >= mCount)
+            throw new IndexOutOfBoundsException("template " + i + " of " + mCount);
+
+        final int last = mCount - 1;
+        final Node leaf = mLeaves[i];
+        for (int j = 0; j < leaf.size; j++) {
+            if (leaf.members[j] == i) {
+                leaf.members[j] = leaf.members[--leaf.size];
+                break;
+            }
+        }
+
+        // drop nodes left empty, then find new medoids for those that stood
+        // for i
+        Node node = leaf;
+        while (node.parent != null && isEmpty(node)) {
+            final Node parent = node.parent;
+            detach(parent, node);
+            node = parent;
+        }
+
+        if (node == mRoot && isEmpty(node)) {
+            node.children = null;
+            node.members = new int[0];
+            node.size = 0;
+        }
+
+        for (; node != null; node = node.parent) {
+            if (node.medoid == i) {
+                node.medoid = firstMember(node);
+                node.vector = templates.get(node.medoid).vector;
+            }
+        }
+
+        if (i != last) {
+            final Node moved = mLeaves[last];
+            for (int j = 0; j < moved.size; j++)
+                if (moved.members[j] == last)
+                    moved.members[j] = i;
+
+            for (node = moved; node != null; node = node.parent)
+                if (node.medoid == last)
+                    node.medoid = i;
+
+            mLeaves[i] = moved;
+        }
+
+        mLeaves[last] = null;
+        mCount--;
+    }
+
+    private static boolean isEmpty(final Node node) {
+        return node.children != null ? node.children.length == 0 : node.size == 0;
+    }
+
+    private static void detach(final Node parent, final Node child) {
+        final Node[] children = new Node[parent.children.length - 1];
+        int n = 0;
+        for (final Node c : parent.children)
+            if (c != child)
+                children[n++] = c;
+        parent.children = children;
+    }
+
+    private static int firstMember(Node node) {
+        while (node.children != null)
+            node = node.children[0];
+        return node.members[0];
+    }
+
+    /**
+     * Clusters an overgrown leaf into a node of its own.
+     */
+    private void split(final List<Recognizer.UniStroke> templates, final Node leaf) {
+        final Node node = build(templates, Arrays.copyOf(leaf.members, leaf.size), leaf.medoid, new Random(leaf.size));
+        if (node.children == null)
+            return; // all alike, nothing to split on
+
+        leaf.children = node.children;
+        leaf.members = null;
+        leaf.size = 0;
+        for (final Node child : leaf.children)
+            child.parent = leaf;
+    }
+
+    private Node build(final List<Recognizer.UniStroke> templates, final int[] members, final int medoid, final Random random) {
+        final Node node = new Node();
+        node.medoid = medoid;
+        node.vector = medoid != -1 ? templates.get(medoid).vector : null;
+
+        if (members.length <= mLeafSize) {
+            return leaf(node, members);
+        }
+
+        final int k = Math.min(mBranching, members.length);
+        final int[] medoids = kMedoids(templates, members, k, random);
+        final int[] assignment = assign(templates, members, medoids, new int[members.length]);
+
+        final int[] sizes = new int[k];
+        for (final int a : assignment)
+            sizes[a]++;
+
+        int clusters = 0;
+        for (final int size : sizes) {
+            // identical templates can end up in one cluster, which would
+            // never get smaller
+            if (size == members.length)
+                return leaf(node, members);
+            if (size > 0)
+                clusters++;
+        }
+
+        node.children = new Node[clusters];
+        int child = 0;
+        for (int c = 0; c < k; c++) {
+            if (sizes[c] == 0)
+                continue;
+
+            final int[] cluster = new int[sizes[c]];
+            int n = 0;
+            for (int j = 0; j < members.length; j++)
+                if (assignment[j] == c)
+                    cluster[n++] = members[j];
+            node.children[child] = build(templates, cluster, medoids[c], random);
+            node.children[child++].parent = node;
+        }
+
+        return node;
+    }
+
+    private Node leaf(final Node node, final int[] members) {
+        node.members = members;
+        node.size = members.length;
+        for (final int member : members)
+            mLeaves[member] = node;
+        return node;
+    }
+
+    /**
+     * Picks k medoids among members, seeded k-medoids++ style and refined by
+     * alternating assignment and medoid updates until nothing moves.
+     */
+    private int[] kMedoids(final List<Recognizer.UniStroke> templates, final int[] members, final int k, final Random random) {
+        final int[] medoids = new int[k];
+        final float[] nearest = new float[members.length];
+        Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+
+        medoids[0] = members[random.nextInt(members.length)];
+        for (int c = 1; c < k; c++) {
+            double total = 0;
+            for (int j = 0; j < members.length; j++) {
+                final float d = distance(templates, members[j], medoids[c - 1]);
+                nearest[j] = Math.min(nearest[j], d * d);
+                total += nearest[j];
+            }
+
+            int pick = 0;
+            double target = random.nextDouble() * total;
+            while (pick < members.length - 1 && (target -= nearest[pick]) > 0)
+                pick++;
+            medoids[c] = members[pick];
+        }
+
+        final int[] assignment = new int[members.length];
+        final int[] cluster = new int[members.length];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            assign(templates, members, medoids, assignment);
+
+            boolean moved = false;
+            for (int c = 0; c < k; c++) {
+                int size = 0;
+                for (int j = 0; j < members.length; j++)
+                    if (assignment[j] == c)
+                        cluster[size++] = members[j];
+
+                final int medoid = medoid(templates, cluster, size, medoids[c], random);
+                if (medoid != medoids[c]) {
+                    medoids[c] = medoid;
+                    moved = true;
+                }
+            }
+
+            if (!moved)
+                break;
+        }
+
+        return medoids;
+    }
+
+    private int[] assign(final List<Recognizer.UniStroke> templates, final int[] members, final int[] medoids, final int[] assignment) {
+        for (int j = 0; j < members.length; j++) {
+            float best = Float.POSITIVE_INFINITY;
+            for (int c = 0; c < medoids.length; c++) {
+                final float d = distance(templates, members[j], medoids[c]);
+                if (d < best) {
+                    best = d;
+                    assignment[j] = c;
+                }
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * The member with the least total distance to the rest of the cluster.
+     * Large clusters only try a sample of members besides the current medoid,
+     * so the cost never goes up.
+     */
+    private int medoid(final List<Recognizer.UniStroke> templates, final int[] cluster, final int size, final int current, final Random random) {
+        int best = current;
+        float bestCost = cost(templates, cluster, size, current);
+
+        final int tries = Math.min(size, MEDOID_SAMPLE);
+        for (int t = 0; t < tries; t++) {
+            final int candidate = size > MEDOID_SAMPLE ? cluster[random.nextInt(size)] : cluster[t];
+            if (candidate == best)
+                continue;
+
+            final float cost = cost(templates, cluster, size, candidate);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+
+        return best;
+    }
+
+    private static float cost(final List<Recognizer.UniStroke> templates, final int[] cluster, final int size, final int medoid) {
+        float cost = 0;
+        for (int j = 0; j < size; j++)
+            cost += distance(templates, cluster[j], medoid);
+        return cost;
+    }
+
+    private static float distance(final List<Recognizer.UniStroke> templates, final int i, final int j) {
+        return i == j ? 0 : Recognizer.optimalCosineDistance(templates.get(i).vector, templates.get(j).vector);
+    }
+
+    /**
+     * Reads an index written for templates, which must be the same list in
+     * the same order it was built from.
+     */
+    public static TemplateIndex read(final InputStream stream, final List<Recognizer.UniStroke> templates) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a template index");
+
+        final int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported template index version " + version);
+
+        final int branching = in.readInt();
+        final int leafSize = in.readInt();
+        final int count = in.readInt();
+        if (count != templates.size())
+            throw new IOException("index is for " + count + " templates, got " + templates.size());
+
+        final TemplateIndex index;
+        try {
+            index = new TemplateIndex(branching, leafSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        index.mCount = count;
+        index.mLeaves = new Node[count];
+        index.mRoot = index.readNode(in, templates);
+
+        for (int i = 0; i < count; i++)
+            if (index.mLeaves[i] == null)
+                throw new IOException("template " + i + " is not indexed");
+
+        return index;
+    }
+
+    private Node readNode(final DataInputStream in, final List<Recognizer.UniStroke> templates) throws IOException {
+        final int count = templates.size();
+
+        final Node node = new Node();
+        node.medoid = in.readInt();
+        if (node.medoid < -1 || node.medoid >= count)
+            throw new IOException("bad medoid " + node.medoid);
+        node.vector = node.medoid != -1 ? templates.get(node.medoid).vector : null;
+
+        final int children = in.readInt();
+        if (children > 0) {
+            node.children = new Node[children];
+            for (int c = 0; c < children; c++) {
+                node.children[c] = readNode(in, templates);
+                node.children[c].parent = node;
+            }
+        } else {
+            final int[] members = new int[in.readInt()];
+            for (int j = 0; j < members.length; j++) {
+                members[j] = in.readInt();
+                if (members[j] < 0 || members[j] >= count || mLeaves[members[j]] != null)
+                    throw new IOException("bad template " + members[j]);
+                mLeaves[members[j]] = node;
+            }
+            node.members = members;
+            node.size = members.length;
+        }
+
+        return node;
+    }
+
+    public void write(final OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mBranching);
+        out.writeInt(mLeafSize);
+        out.writeInt(mCount);
+        writeNode(out, mRoot);
+        out.flush();
+    }
+
+    private static void writeNode(final DataOutputStream out, final Node node) throws IOException {
+        out.writeInt(node.medoid);
+        if (node.children != null) {
+            out.writeInt(node.children.length);
+            for (final Node child : node.children)
+                writeNode(out, child);
+        } else {
+            out.writeInt(0);
+            out.writeInt(node.size);
+            for (int j = 0; j < node.size; j++)
+                out.writeInt(node.members[j]);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide gesture templates. The templates are normalized at build time
+ * by the tools module and shipped as a binary asset, so startup only reads
+ * floats back instead of resampling every template for every recognizer.
+ * There is one unistroke asset per recognizer tier, each normalized to the
+ * points of its tier.
+ *
+ * Unistroke format, big endian: magic, version, points per template,
+ * template count, then for each template its name followed by the normalized
+ * points and the Protractor vector.
+ *
+ * Multistroke templates are shipped as authored, since their permutations
+ * would take n! * 2^n times the space. Format: magic, version, template
+ * count, then for each template its name, stroke count and for each stroke
+ * its point count and raw points. The permutations are expanded once, when
+ * the asset is first read.
+ */
+public class TemplateStore {
+
+    private static final String TAG = Log.buildTag(TemplateStore.class);
+
+    public static final String UNISTROKE_ASSET = "gestures/unistrokes.bin";
+    public static final String MULTISTROKE_ASSET = "gestures/multistrokes.bin";
+
+    static final int MAGIC = 0x54435553; // TCUS
+    static final int VERSION = 1;
+
+    static final int MULTISTROKE_MAGIC = 0x54434d53; // TCMS
+    static final int MULTISTROKE_VERSION = 1;
+
+    public interface Source {
+        InputStream open(String asset) throws IOException;
+    }
+
+    private static TemplateStore sDefault;
+
+    private Source mSource;
+    private final Map<Recognizer.Tier, List<Recognizer.UniStroke>> mTemplates =
+            new EnumMap<Recognizer.Tier, List<Recognizer.UniStroke>>(Recognizer.Tier.class);
+    private List<List<Recognizer.UniStroke>> mPermutations;
+
+    public static synchronized TemplateStore getDefault() {
+        if (sDefault == null)
+            sDefault = new TemplateStore();
+
+        return sDefault;
+    }
+
+    public synchronized void setSource(final Source source) {
+        mSource = source;
+    }
+
+    /**
+     * The asset holding the unistroke templates of a tier.
+     */
+    public static String getUnistrokeAsset(final Recognizer.Tier tier) {
+        if (tier == Recognizer.Tier.STANDARD)
+            return UNISTROKE_ASSET;
+
+        return "gestures/unistrokes-" + tier.numPoints + ".bin";
+    }
+
+    public synchronized List<Recognizer.UniStroke> getTemplates() {
+        return getTemplates(Recognizer.Tier.STANDARD);
+    }
+
+    /**
+     * Returns the templates of a tier, reading them on the first call.
+     * Returns null if no source has been set yet so the caller can try again
+     * later.
+     */
+    public synchronized List<Recognizer.UniStroke> getTemplates(final Recognizer.Tier tier) {
+        List<Recognizer.UniStroke> templates = mTemplates.get(tier);
+        if (templates != null)
+            return templates;
+
+        if (mSource == null)
+            return null;
+
+        final long start = System.nanoTime();
+
+        InputStream in = null;
+        try {
+            in = mSource.open(getUnistrokeAsset(tier));
+            templates = read(in);
+            if (!templates.isEmpty() && templates.get(0).getTier() != tier)
+                throw new IOException(getUnistrokeAsset(tier) + " is not for " + tier);
+            templates = Collections.unmodifiableList(templates);
+            Log.d(TAG, "loaded %d %s templates in %.2fms", templates.size(), tier, (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            Log.e(TAG, "error loading %s templates", e, tier);
+            templates = Collections.emptyList();
+        } finally {
+            close(in);
+        }
+
+        mTemplates.put(tier, templates);
+        return templates;
+    }
+
+    /**
+     * Returns the permutations of the multistroke templates indexed by stroke
+     * count, expanding them on the first call. Returns null if no source has
+     * been set yet.
+     */
+    public synchronized List<List<Recognizer.UniStroke>> getPermutations() {
+        if (mPermutations != null)
+            return mPermutations;
+
+        if (mSource == null)
+            return null;
+
+        final long start = System.nanoTime();
+
+        InputStream in = null;
+        try {
+            in = mSource.open(MULTISTROKE_ASSET);
+            mPermutations = permute(readMultiStrokes(in));
+            Log.d(TAG, "expanded multistroke templates in %.2fms", (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            Log.e(TAG, "error loading multistroke templates", e);
+            mPermutations = permute(Collections.<MultiStrokeRecognizer.MultiStroke>emptyList());
+        } finally {
+            close(in);
+        }
+
+        return mPermutations;
+    }
+
+    /**
+     * Expands multistroke templates into unistroke permutations grouped by
+     * stroke count.
+     */
+    static List<List<Recognizer.UniStroke>> permute(final List<MultiStrokeRecognizer.MultiStroke> templates) {
+        final List<List<Recognizer.UniStroke>> rv = new ArrayList<List<Recognizer.UniStroke>>();
+        for (int n = 0; n <= MultiStrokeRecognizer.MAX_STROKES; n++)
+            rv.add(new ArrayList<Recognizer.UniStroke>());
+
+        for (final MultiStrokeRecognizer.MultiStroke template : templates)
+            rv.get(template.getStrokeCount()).addAll(template.permute());
+
+        for (int n = 0; n < rv.size(); n++)
+            rv.set(n, Collections.unmodifiableList(rv.get(n)));
+
+        return Collections.unmodifiableList(rv);
+    }
+
+    private static void close(final InputStream in) {
+        try {
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            Log.e(TAG, "error closing templates", e);
+        }
+    }
+
+    public static List<Recognizer.UniStroke> read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a template file");
+
+        final int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported template version " + version);
+
+        final int numPoints = in.readInt();
+        try {
+            Recognizer.Tier.of(numPoints);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        final int count = in.readInt();
+        final List<Recognizer.UniStroke> rv = new ArrayList<Recognizer.UniStroke>(count);
+        for (int i = 0; i < count; i++) {
+            final String name = in.readUTF();
+            final float[] points = readFloats(in, numPoints * 2);
+            final float[] vector = readFloats(in, numPoints * 2);
+            rv.add(new Recognizer.UniStroke(name, points, vector));
+        }
+
+        return rv;
+    }
+
+    /**
+     * Writes templates, all of which must be of one tier.
+     */
+    public static void write(final OutputStream stream, final List<Recognizer.UniStroke> templates) throws IOException {
+        final int numPoints = templates.isEmpty() ? Recognizer.NUM_POINTS : templates.get(0).points.length / 2;
+        for (final Recognizer.UniStroke template : templates)
+            if (template.points.length != numPoints * 2)
+                throw new IllegalArgumentException("templates are not all of one tier");
+
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numPoints);
+        out.writeInt(templates.size());
+        for (final Recognizer.UniStroke template : templates) {
+            out.writeUTF(template.name);
+            writeFloats(out, template.points);
+            writeFloats(out, template.vector);
+        }
+        out.flush();
+    }
+
+    public static List<MultiStrokeRecognizer.MultiStroke> readMultiStrokes(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MULTISTROKE_MAGIC)
+            throw new IOException("not a multistroke template file");
+
+        final int version = in.readInt();
+        if (version != MULTISTROKE_VERSION)
+            throw new IOException("unsupported multistroke template version " + version);
+
+        final int count = in.readInt();
+        final List<MultiStrokeRecognizer.MultiStroke> rv = new ArrayList<MultiStrokeRecognizer.MultiStroke>(count);
+        for (int i = 0; i < count; i++) {
+            final String name = in.readUTF();
+            final float[][] strokes = new float[in.readInt()][];
+            for (int j = 0; j < strokes.length; j++)
+                strokes[j] = readFloats(in, in.readInt() * 2);
+
+            try {
+                rv.add(new MultiStrokeRecognizer.MultiStroke(name, strokes));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        return rv;
+    }
+
+    public static void writeMultiStrokes(final OutputStream stream, final List<MultiStrokeRecognizer.MultiStroke> templates) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MULTISTROKE_MAGIC);
+        out.writeInt(MULTISTROKE_VERSION);
+        out.writeInt(templates.size());
+        for (final MultiStrokeRecognizer.MultiStroke template : templates) {
+            out.writeUTF(template.name);
+            out.writeInt(template.strokes.length);
+            for (final float[] stroke : template.strokes) {
+                out.writeInt(stroke.length / 2);
+                writeFloats(out, stroke);
+            }
+        }
+        out.flush();
+    }
+
+    private static float[] readFloats(final DataInputStream in, final int count) throws IOException {
+        final float[] rv = new float[count];
+        for (int i = 0; i < count; i++)
+            rv[i] = in.readFloat();
+        return rv;
+    }
+
+    private static void writeFloats(final DataOutputStream out, final float[] values) throws IOException {
+        for (final float value : values)
+            out.writeFloat(value);
+    }
+}
@@ -0,0 +1,162 @@
+package org.quuux.touchcast.gesture;
+
+import org.quuux.touchcast.Log;
+
+/**
+ * Recognizers for the same templates at several tiers, switching between
+ * them to keep recognition within a latency budget. Strokes are matched at
+ * the finest tier whose rolling cost fits the budget, so a slow device
+ * settles on fewer points instead of delivering its results late.
+ *
+ * The tier only changes between strokes, in select. The cost of a tier is
+ * the median of its latest recognitions since it was picked, see
+ * Recognizer.getCost. A tier over budget steps down once its cost has
+ * settled. Every PROBE_INTERVAL strokes the next finer tier is tried if its
+ * last measured cost fits the budget with HEADROOM to spare, or if it has no
+ * recent cost, the current cost scaled by the number of points. Like the
+ * recognizers, this must only be used from one thread.
+ */
+public class TieredRecognizer {
+
+    private static final String TAG = Log.buildTag(TieredRecognizer.class);
+
+    // a result within half a frame of the end of the stroke
+    public static final long DEFAULT_BUDGET_NANOS = 8000000;
+
+    // recognitions at a tier before its cost is trusted
+    static final int SETTLE = 8;
+
+    // strokes between tries of a finer tier
+    static final int PROBE_INTERVAL = 32;
+
+    // strokes after which the cost measured at a tier is no longer trusted
+    static final int STALE = 256;
+
+    static final float HEADROOM = 0.75f;
+
+    private final Recognizer[] mRecognizers; // coarsest first
+    private final int[] mMeasuredAt;
+    private long mBudget = DEFAULT_BUDGET_NANOS;
+    private int mCurrent;
+    private int mStrokes;
+    private int mChangedAt;
+    private int mLastCount;
+
+    /**
+     * Recognizes at every tier against the process wide templates.
+     */
+    public TieredRecognizer() {
+        this(recognizers());
+    }
+
+    /**
+     * Switches between recognizers of distinct tiers, given coarsest first.
+     * Starts at the STANDARD tier if one is given, or else the coarsest.
+     */
+    public TieredRecognizer(final Recognizer... recognizers) {
+        if (recognizers.length == 0)
+            throw new IllegalArgumentException("needs a recognizer");
+
+        for (int i = 1; i < recognizers.length; i++)
+            if (recognizers[i].getTier().compareTo(recognizers[i - 1].getTier()) <= 0)
+                throw new IllegalArgumentException("recognizers must be of distinct tiers, coarsest first");
+
+        mRecognizers = recognizers;
+        mMeasuredAt = new int[recognizers.length];
+        for (int i = 0; i < recognizers.length; i++)
+            if (recognizers[i].getTier() == Recognizer.Tier.STANDARD)
+                mCurrent = i;
+        change(mCurrent);
+    }
+
+    private static Recognizer[] recognizers() {
+        final Recognizer.Tier[] tiers = Recognizer.Tier.values();
+        final Recognizer[] rv = new Recognizer[tiers.length];
+        for (int i = 0; i < tiers.length; i++)
+            rv[i] = new Recognizer(tiers[i]);
+        return rv;
+    }
+
+    public void setLatencyBudget(final long nanos) {
+        mBudget = nanos;
+    }
+
+    public long getLatencyBudget() {
+        return mBudget;
+    }
+
+    public void setParallel(final boolean parallel) {
+        for (final Recognizer recognizer : mRecognizers)
+            recognizer.setParallel(parallel);
+    }
+
+    /**
+     * Adds a template to every tier, normalized for each from the points of
+     * its own tier.
+     */
+    public void addTemplate(final Recognizer.UniStroke uni) {
+        for (final Recognizer recognizer : mRecognizers)
+            recognizer.addTemplate(uni.toTier(recognizer.getTier()));
+    }
+
+    public Recognizer.Tier getTier() {
+        return mRecognizers[mCurrent].getTier();
+    }
+
+    /**
+     * The recognizer of the current tier.
+     */
+    public Recognizer getRecognizer() {
+        return mRecognizers[mCurrent];
+    }
+
+    /**
+     * Picks the tier for the next stroke from the cost of the strokes so far
+     * and returns its recognizer.
+     */
+    public Recognizer select() {
+        mStrokes++;
+
+        final Recognizer current = mRecognizers[mCurrent];
+        final int count = current.getRecognitionCount();
+        if (count != mLastCount) {
+            mMeasuredAt[mCurrent] = mStrokes;
+            mLastCount = count;
+        }
+
+        if (current.getCostCount() < SETTLE)
+            return current;
+
+        final long cost = current.getCost();
+        if (mCurrent > 0 && cost > mBudget) {
+            Log.d(TAG, "%s takes %.2fms, over the %.2fms budget", current.getTier(), cost / 1e6, mBudget / 1e6);
+            change(mCurrent - 1);
+        } else if (mCurrent < mRecognizers.length - 1 && mStrokes - mChangedAt >= PROBE_INTERVAL) {
+            final long estimate = estimate(mCurrent + 1);
+            if (estimate <= mBudget * HEADROOM) {
+                Log.d(TAG, "%s expected to take %.2fms, within the %.2fms budget", mRecognizers[mCurrent + 1].getTier(),
+                        estimate / 1e6, mBudget / 1e6);
+                change(mCurrent + 1);
+            }
+        }
+
+        return mRecognizers[mCurrent];
+    }
+
+    private long estimate(final int i) {
+        final Recognizer finer = mRecognizers[i];
+        if (finer.getCostCount() > 0 && mStrokes - mMeasuredAt[i] < STALE)
+            return finer.getCost();
+
+        final Recognizer current = mRecognizers[mCurrent];
+        return current.getCost() * finer.getTier().numPoints / current.getTier().numPoints;
+    }
+
+    private void change(final int i) {
+        mCurrent = i;
+        mChangedAt = mStrokes;
+        mLastCount = mRecognizers[i].getRecognitionCount();
+        mRecognizers[i].resetCost();
+        Log.d(TAG, "recognizing at %s", mRecognizers[i].getTier());
+    }
+}
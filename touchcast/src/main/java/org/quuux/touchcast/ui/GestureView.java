@@ -16,13 +16,10 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 public class GestureView extends View {
     private static final String TAG = "GestureView";
-    private List<PointF> mPoints = new ArrayList<PointF>();
+    private float[] mPoints = new float[256];
+    private int mCount;
     private Paint mPaint;
     private Path mPath;
 
@@ -61,27 +58,37 @@ public class GestureView extends View {
 
         mPath.reset();
 
-        if (mPoints.size() > 4) {
-            final PointF start = mPoints.get(0);
-            mPath.moveTo(start.x, start.y);
+        if (mCount > 4) {
+            mPath.moveTo(mPoints[0], mPoints[1]);
 
-            for (int i = 1; i < mPoints.size() / 2; i++) {
-                final PointF a = mPoints.get(i * 2);
-                final PointF b = mPoints.get(i * 2 + 1);
-                mPath.quadTo(a.x, a.y, b.x, b.y);
+            for (int i = 1; i < mCount / 2; i++) {
+                final int a = i * 4;
+                mPath.quadTo(mPoints[a], mPoints[a + 1], mPoints[a + 2], mPoints[a + 3]);
             }
             canvas.drawPath(mPath, mPaint);
         }
     }
 
     public void clear() {
-        mPoints.clear();
+        mCount = 0;
         invalidate();
     }
 
     public void plot(final PointF[] points) {
-        clear();
-        mPoints.addAll(Arrays.asList(points));
+        plot(Strokes.pack(points, mPoints), points.length);
+    }
+
+    /**
+     * Plots count points packed as x,y pairs. The points are copied.
+     */
+    public void plot(final float[] points, final int count) {
+        if (mPoints.length < count * 2)
+            mPoints = new float[count * 2];
+
+        if (points != mPoints)
+            System.arraycopy(points, 0, mPoints, 0, count * 2);
+
+        mCount = count;
         invalidate();
     }
 
@@ -39,11 +39,11 @@ public class IncantationView extends LinearLayout {
 
         PointF[] points = gesture.points;
         //Log.d(TAG, "src = %s", Arrays.toString(gesture.points));
-        final RectF boundingBox = Recognizer.boundingBox(points);
+        final RectF boundingBox = Strokes.boundingBox(points);
         //Log.d(TAG, "bounding box = %s", boundingBox);
-        points = Recognizer.scaleTo(gesture.points, size/2);
+        points = Strokes.scaleTo(gesture.points, size/2);
         //Log.d(TAG, "scaled = %s", Arrays.toString(points));
-        points = Recognizer.translateTo(points, new PointF(size/2, size/2));
+        points = Strokes.translateTo(points, new PointF(size/2, size/2));
         //Log.d(TAG, "translated = %s", Arrays.toString(points));
 
         gesturedView.plot(points);
@@ -8,9 +8,10 @@ import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.view.GestureDetectorCompat;
-import android.util.Pair;
+import android.util.SparseArray;
 import android.view.GestureDetector;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -27,38 +28,66 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.games.Games;
 import com.google.android.gms.games.multiplayer.turnbased.TurnBasedMatch;
 
+import org.quuux.touchcast.BuildConfig;
 import org.quuux.touchcast.Log;
 import org.quuux.touchcast.R;
+import org.quuux.touchcast.game.EntityStore;
+import org.quuux.touchcast.game.IncantationMatcher;
+import org.quuux.touchcast.game.JournalArchive;
 import org.quuux.touchcast.game.Player;
 import org.quuux.touchcast.game.Spell;
+import org.quuux.touchcast.game.SpellBook;
+import org.quuux.touchcast.game.TurnPayload;
 import org.quuux.touchcast.game.World;
+import org.quuux.touchcast.gesture.PlayerTemplates;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.StrokeBuffer;
+import org.quuux.touchcast.gesture.StrokeCorpus;
+import org.quuux.touchcast.gesture.TieredRecognizer;
 import org.quuux.touchcast.util.TileSet;
 import org.quuux.touchcast.util.Utils;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 public class MatchFragment extends Fragment implements View.OnTouchListener, View.OnClickListener {
 
     private static final String TAG = Log.buildTag(MatchFragment.class);
 
+    // strokes that stay within the slop for the settle time are recognized
+    // before the finger lifts if the recognizer is confident, see
+    // RecognitionWorker.setEarlyCommit. debug builds only until the overturn
+    // rate it logs has been measured and the thresholds tuned against it
+    static final boolean EARLY_COMMIT = BuildConfig.DEBUG;
+    static final long SETTLE_MILLIS = 150;
+    static final int SETTLE_SLOP_DP = 4;
+    static final float EARLY_MIN_SCORE = 5;
+    static final float EARLY_MIN_MARGIN = 1.5f;
+
+    static final int GESTURE_BUFFER = 4;
+
+    // keeps the actions checkpointed out of the journal for replays
+    static final boolean ARCHIVE_JOURNAL = true;
+
     public interface Listener {
         Player getPlayer();
         TileSet getTileSet();
         GoogleApiClient getApiClient();
 
-        void saveMatch(String matchId, World world);
-        World loadMatch(String matchId);
+        // the world as encoded at the end of this participant's last turn,
+        // see TurnPayload.getSnapshot
+        void saveMatch(String matchId, byte[] world);
+        byte[] loadMatch(String matchId);
     }
 
     Listener mListener;
 
     TurnBasedMatch mMatch;
+    TurnPayload mTurn;
     World mWorld;
+    JournalArchive mJournalArchive;
 
     WorldView mWorldView;
     GestureView mGestureView;
@@ -71,13 +100,22 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
     TextView mCoverText;
     GestureDetectorCompat mGestureDetector;
     ViewConfiguration mViewConfiguration;
-    Recognizer mRecognizer = new Recognizer();
+    RecognitionWorker mRecognitionWorker;
+    StrokeBuffer mStroke;
+    int mStrokeId;
+    int mCommittedStroke; // last stroke recognized before it was finished
+    float mSettleSlop;
+
+    // strokes drawn but not yet written to the corpus, by stroke id
+    boolean mRecording;
+    SparseArray<StrokeCorpus.Entry> mRecordings = new SparseArray<StrokeCorpus.Entry>();
 
     PopupWindow mPopupWindow;
     World.Entity mSelectedEntity;
     LinkedList<Gesture> mGestureBuffer = new LinkedList<Gesture>();
 
-    Map<Incantation, Spell> mSpells = new HashMap<Incantation, Spell>();
+    IncantationMatcher mSpells;
+    int mIncantationState = IncantationMatcher.START;
 
     protected MatchFragment() {
         super();
@@ -100,6 +138,32 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         mMatch = args.getParcelable("match");
         mGestureDetector = new GestureDetectorCompat(getActivity(), mGestureListener);
         mViewConfiguration = ViewConfiguration.get(getActivity());
+
+        final TieredRecognizer recognizer = new TieredRecognizer();
+        recognizer.setParallel(true);
+        mRecognitionWorker = new RecognitionWorker(recognizer, mRecognitionListener);
+        mRecognitionWorker.setPlayerTemplates(new PlayerTemplates(
+                new File(getActivity().getFilesDir(), "gestures-" + mListener.getPlayer().uuid)));
+        mStroke = new StrokeBuffer(Recognizer.NUM_POINTS / 2, Utils.dpToPx(getActivity(), 2));
+        mRecognitionWorker.setEarlyCommit(EARLY_COMMIT, EARLY_MIN_SCORE, EARLY_MIN_MARGIN);
+        mSettleSlop = Utils.dpToPx(getActivity(), SETTLE_SLOP_DP);
+
+        if (ARCHIVE_JOURNAL)
+            mJournalArchive = new JournalArchive(new File(getActivity().getFilesDir(), "journal-" + mMatch.getMatchId()),
+                    AsyncTask.SERIAL_EXECUTOR);
+
+        mRecording = BuildConfig.DEBUG;
+        if (mRecording)
+            mRecognitionWorker.setCorpus(new StrokeCorpus.Writer(new File(getActivity().getFilesDir(), "strokes.corpus")));
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        recordPending(Integer.MAX_VALUE);
+        for (final Gesture gesture : mGestureBuffer)
+            recordGesture(gesture, null);
+        mRecognitionWorker.shutdown();
     }
 
     private void genesis () {
@@ -107,17 +171,38 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         World lastWorld = null;
         final byte[] data = mMatch.getData();
         if (data == null || data.length == 0) {
+            mTurn = new TurnPayload();
             mWorld = World.generate();
         } else {
-            lastWorld = mListener.loadMatch(mMatch.getMatchId());
-            mWorld = World.unserialize(data);
+            try {
+                mTurn = TurnPayload.read(data, mListener.loadMatch(mMatch.getMatchId()), mJournalArchive);
+            } catch (IOException e) {
+                Log.e(TAG, "error reading turn", e);
+
+                // the sender can send a delta again as a keyframe
+                final boolean retry = TurnPayload.isDelta(data)
+                        && mMatch.getTurnStatus() == TurnBasedMatch.MATCH_TURN_STATUS_MY_TURN;
+                mWorldView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (retry)
+                            requestKeyframe(data);
+                        else
+                            onMatchOutOfSync();
+                    }
+                });
+                return;
+            }
+            mWorld = mTurn.getWorld();
+            lastWorld = mTurn.getSavedWorld();
         }
 
-        mWorld.setOrder(mMatch.getParticipantIds());
+        mWorld.setArchive(mJournalArchive);
 
-        final String playerId = Games.Players.getCurrentPlayerId(mListener.getApiClient());
-        final String participantId = mMatch.getParticipantId(playerId);
-        mWorld.join(participantId, mListener.getPlayer());
+        if (mTurn.getRequester() == null) {
+            mWorld.setOrder(mMatch.getParticipantIds());
+            mWorld.join(getParticipantId(), mListener.getPlayer());
+        }
 
         if (lastWorld != null)
             mWorldView.setInitialWorld(lastWorld);
@@ -126,6 +211,9 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
             @Override
             public void run() {
                 mWorldView.setWorld(mWorld);
+                updateMeters();
+                if (mTurn.getRequester() != null)
+                    sendKeyframe();
             }
         });
     }
@@ -240,29 +328,76 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
 
     final View.OnTouchListener mUniStrokeListener = new View.OnTouchListener() {
 
-        ArrayList<PointF> mCurrentStroke = new ArrayList<PointF>(5000);
+        // where and when the stroke last moved out of the settle slop
+        float mAnchorX, mAnchorY;
+        long mAnchorTime;
+        boolean mSettlePending;
 
-        PointF[] getPoints() {
-            return mCurrentStroke.toArray(new PointF[mCurrentStroke.size()]);
-        }
+        final Runnable mSettle = new Runnable() {
+            @Override
+            public void run() {
+                mSettlePending = false;
+
+                // event times are uptime millis
+                final long remaining = mAnchorTime + SETTLE_MILLIS - SystemClock.uptimeMillis();
+                if (remaining > 0) {
+                    mSettlePending = true;
+                    mWorldView.postDelayed(this, remaining);
+                } else if (mCommittedStroke != mStrokeId && mStroke.getLength() > mViewConfiguration.getScaledTouchSlop() * 2) {
+                    mRecognitionWorker.settle(Recognizer.Mode.PROTRACTOR);
+                }
+            }
+        };
 
         void sample(final MotionEvent event) {
             final int historySize = event.getHistorySize();
             for (int h = 0; h < historySize; h++) {
-                final PointF p = new PointF(event.getHistoricalX(h), event.getHistoricalY(h));
-                mCurrentStroke.add(p);
+                final float x = event.getHistoricalX(h);
+                final float y = event.getHistoricalY(h);
+                mStroke.add(x, y, event.getHistoricalEventTime(h));
+                mRecognitionWorker.add(x, y);
+                track(x, y, event.getHistoricalEventTime(h));
             }
+            track(event.getX(), event.getY(), event.getEventTime());
         }
 
-        void complete() {
-            if(mCurrentStroke.size() > 8) {
-                Pair<Recognizer.UniStroke, Float> result = mRecognizer.recognize(getPoints(), true);
-                if (result != null) {
-                    onStrokeRecognized(result.first.name, result.second, getPoints());
-                }
+        void track(final float x, final float y, final long time) {
+            if (!EARLY_COMMIT || Recognizer.distance(mAnchorX, mAnchorY, x, y) <= mSettleSlop)
+                return;
+
+            mAnchorX = x;
+            mAnchorY = y;
+            mAnchorTime = time;
+            if (!mSettlePending) {
+                mSettlePending = true;
+                mWorldView.postDelayed(mSettle, SETTLE_MILLIS);
             }
         }
 
+        void startTracking(final MotionEvent event) {
+            mAnchorX = event.getX();
+            mAnchorY = event.getY();
+            mAnchorTime = event.getEventTime();
+        }
+
+        void stopTracking() {
+            mWorldView.removeCallbacks(mSettle);
+            mSettlePending = false;
+        }
+
+        void preview() {
+            mRecognitionWorker.preview();
+        }
+
+        void complete() {
+            mRecognitionWorker.complete(Recognizer.Mode.PROTRACTOR);
+
+            // an early committed stroke was recorded as it was recognized
+            if (mRecording && mCommittedStroke != mStrokeId)
+                mRecordings.put(mStrokeId, StrokeCorpus.Entry.fromSampleTimes(null, null, System.currentTimeMillis(),
+                        mStroke.copyPoints(), mStroke.copyTimes(), mStroke.getCount()));
+        }
+
         @Override
         public boolean onTouch(final View view, final MotionEvent motionEvent) {
 
@@ -271,31 +406,51 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
             switch (motionEvent.getAction()) {
 
                 case MotionEvent.ACTION_DOWN:
-                    mCurrentStroke.clear();
+                    mStroke.clear();
+                    mStrokeId = mRecognitionWorker.begin();
+                    startTracking(motionEvent);
                     sample(motionEvent);
                     break;
 
                 case MotionEvent.ACTION_MOVE:
                     sample(motionEvent);
+                    preview();
                     break;
 
                 case MotionEvent.ACTION_UP:
                 case MotionEvent.ACTION_CANCEL:
+                    stopTracking();
                     sample(motionEvent);
                     complete();
                     break;
 
             }
 
-            final PointF[] points = getPoints();
-            if (Recognizer.pathLength(points) > mViewConfiguration.getScaledTouchSlop() * 2) {
-                mGestureView.plot(Recognizer.resample(points, Recognizer.NUM_POINTS));
+            if (mStroke.getLength() > mViewConfiguration.getScaledTouchSlop() * 2) {
+                mGestureView.plot(mStroke.getPreview(), mStroke.getPreviewCount());
             }
 
             return true;
         }
     };
 
+    final RecognitionWorker.Listener mRecognitionListener = new RecognitionWorker.Listener() {
+        @Override
+        public void onStrokePreview(final String name) {
+            MatchFragment.this.onStrokePreview(name);
+        }
+
+        @Override
+        public void onStrokeRecognized(final RecognitionWorker.Recognition recognition) {
+            if (recognition.early)
+                mCommittedStroke = recognition.stroke;
+
+            final PointF[] points = Strokes.unpack(recognition.points, recognition.points.length / 2);
+            MatchFragment.this.onStrokeRecognized(recognition.name, recognition.score, points,
+                    takeRecording(recognition));
+        }
+    };
+
     @Override
     public void onClick(final View v) {
         switch (v.getId()) {
@@ -308,89 +463,169 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         }
     }
 
+    private String getParticipantId() {
+        final String playerId = Games.Players.getCurrentPlayerId(mListener.getApiClient());
+        return mMatch.getParticipantId(playerId);
+    }
+
     private void endTurn() {
         final List<String> participantIds = mMatch.getParticipantIds();
 
-        final String playerId = Games.Players.getCurrentPlayerId(mListener.getApiClient());
-        final String participantId = mMatch.getParticipantId(playerId);
+        final String participantId = getParticipantId();
         final int current = participantIds.indexOf(participantId);
         final String nextParticipantId = participantIds.get((current + 1) % participantIds.size());
 
-        Games.TurnBasedMultiplayer.takeTurn(mListener.getApiClient(), mMatch.getMatchId(), mWorld.serialize(), nextParticipantId);
-
-        mListener.saveMatch(mMatch.getMatchId(), mWorld);
-
-        onTheirTurn();
-    }
+        mWorld.endTurn();
 
-    private void addSpell(final String name, final String... gestures) {
-        mSpells.put(new Incantation(gestures), new Spell(name));
-    }
-
-    private void initMatch() {
-        if (mSpells.size() == 0) {
-            addSpell("fireball", "triangle", "rectangle", "circle");
-            addSpell("summon", "star");
-            addSpell("protect", "pigtail");
-            addSpell("lightning-bolt", "delete", "caret");
+        final byte[] data;
+        try {
+            data = mTurn.write(mWorld, participantId, nextParticipantId);
+        } catch (IOException e) {
+            Log.e(TAG, "error writing turn", e);
+            return;
         }
-    }
-
-    private Spell checkCast(int length) {
 
-        if (length > mGestureBuffer.size())
-            return null;
+        Games.TurnBasedMultiplayer.takeTurn(mListener.getApiClient(), mMatch.getMatchId(), data, nextParticipantId);
 
-        final List<String> names = new ArrayList<String>();
+        mListener.saveMatch(mMatch.getMatchId(), mTurn.getSnapshot());
 
-        for (int i=length-1; i>=0; i--)
-            names.add(mGestureBuffer.get(i).name);
+        onTheirTurn();
+    }
 
-        final String[] namesArr = names.toArray(new String[names.size()]);
-        Log.d(TAG, "check cast -> %s", Arrays.toString(namesArr));
+    // asks the sender of a delta this copy can't be rebuilt from, such as
+    // after the saved copy was lost, to send its world whole
+    private void requestKeyframe(final byte[] data) {
+        final byte[] request;
+        try {
+            request = TurnPayload.requestKeyframe(data, getParticipantId());
+        } catch (IOException e) {
+            Log.e(TAG, "error requesting keyframe", e);
+            onMatchOutOfSync();
+            return;
+        }
 
-        final Incantation incantation = new Incantation(namesArr);
-        return mSpells.get(incantation);
+        Games.TurnBasedMultiplayer.takeTurn(mListener.getApiClient(), mMatch.getMatchId(), request,
+                mMatch.getLastUpdaterId());
+        showCoverText(R.string.syncing);
+        disableWorld();
     }
 
-    private Spell checkCast() {
-        for (int i=1; i<=mGestureBuffer.size(); i++) {
-            final Spell spell = checkCast(i);
-            if (spell != null)
-                return spell;
+    // answers a keyframe request with the saved world, unchanged, so the
+    // saved copy stays the base of the next turn
+    private void sendKeyframe() {
+        final byte[] data;
+        try {
+            data = mTurn.write(mWorld, getParticipantId(), mTurn.getRequester());
+        } catch (IOException e) {
+            Log.e(TAG, "error writing keyframe", e);
+            onMatchOutOfSync();
+            return;
         }
 
-        return null;
+        Games.TurnBasedMultiplayer.takeTurn(mListener.getApiClient(), mMatch.getMatchId(), data, mTurn.getRequester());
+        onTheirTurn();
+    }
+
+    private void initMatch() {
+        if (mSpells == null)
+            mSpells = SpellBook.getDefault().getMatcher();
     }
 
-    private void onStrokeRecognized(final String name, final float score, final PointF[] points) {
+    private void onStrokeRecognized(final String name, final float score, final PointF[] points,
+                                    final StrokeCorpus.Entry recording) {
         Log.d(TAG, "recognized: %s (score: %s)", name, score);
         if (name != null) {
             showCoverText(name);
 
             final Gesture gesture = new Gesture(name, score, points);
+            gesture.recording = recording;
 
             mGestureBuffer.addFirst(gesture);
-            while (mGestureBuffer.size() > 4) {
-                mGestureBuffer.removeLast();
+            while (mGestureBuffer.size() > Math.max(GESTURE_BUFFER, mSpells.getMaxLength())) {
+                recordGesture(mGestureBuffer.removeLast(), null);
             }
 
             mIncantationView.addGesture(gesture);
 
-            final Spell spell = checkCast();
+            mIncantationState = mSpells.next(mIncantationState, name);
+            final Spell spell = mSpells.getSpell(mIncantationState);
+            Log.d(TAG, "cast state %d (%d gestures into a spell)", mIncantationState, mSpells.getDepth(mIncantationState));
 
             if (spell != null) {
-                onSpellCast(spell);
+                onSpellCast(spell, mSpells.getSpellLength(mIncantationState));
             }
         }
 
     }
 
-    private void onSpellCast(final Spell spell) {
+    private void onStrokePreview(final String name) {
+        Log.d(TAG, "leading: %s", name);
+        final Spell spell = mSpells.getSpell(mSpells.next(mIncantationState, name));
+        showCoverText(spell != null ? spell.getName() : name);
+    }
+
+    private void onSpellCast(final Spell spell, final int length) {
         Log.d(TAG, "cast %s!!!", spell.getName());
         showCoverText(spell.getName());
+        learnIncantation(length);
         clearIncantation();
-        mWorld.castSpell(mListener.getPlayer(), spell, mSelectedEntity);
+        if (!mWorld.castSpell(mListener.getPlayer(), spell, mSelectedEntity))
+            showCoverText(R.string.out_of_range);
+        updateMeters();
+    }
+
+    // the strokes of a cast that went through are good samples of how this
+    // player draws its gestures
+    private void learnIncantation(final int length) {
+        final int count = Math.min(length, mGestureBuffer.size());
+        for (int i = 0; i < count; i++) {
+            final Gesture gesture = mGestureBuffer.get(i);
+            mRecognitionWorker.learn(gesture.name, Strokes.pack(gesture.points, null), gesture.points.length);
+            recordGesture(gesture, gesture.name);
+        }
+    }
+
+    // the recording of a recognized stroke waits on its gesture, which gets
+    // a label if it ends up in a cast. strokes of a group before its last
+    // and strokes recognized as nothing are written unlabeled right away
+    private StrokeCorpus.Entry takeRecording(final RecognitionWorker.Recognition recognition) {
+        if (!mRecording)
+            return null;
+
+        StrokeCorpus.Entry entry = mRecordings.get(recognition.stroke);
+        mRecordings.remove(recognition.stroke);
+        recordPending(recognition.stroke);
+
+        // a stroke committed early is still being drawn, record it as it was
+        // recognized
+        if (entry == null && recognition.early && recognition.stroke == mStrokeId)
+            entry = StrokeCorpus.Entry.fromSampleTimes(null, null, System.currentTimeMillis(),
+                    mStroke.copyPoints(), mStroke.copyTimes(), mStroke.getCount());
+
+        if (entry == null)
+            return null;
+
+        final StrokeCorpus.Entry recognized = entry.withRecognized(recognition.name);
+        if (recognition.name == null) {
+            mRecognitionWorker.record(recognized);
+            return null;
+        }
+        return recognized;
+    }
+
+    private void recordPending(final int before) {
+        while (mRecordings.size() > 0 && mRecordings.keyAt(0) < before) {
+            mRecognitionWorker.record(mRecordings.valueAt(0));
+            mRecordings.removeAt(0);
+        }
+    }
+
+    private void recordGesture(final Gesture gesture, final String label) {
+        if (gesture.recording == null)
+            return;
+
+        mRecognitionWorker.record(label != null ? gesture.recording.withLabel(label) : gesture.recording);
+        gesture.recording = null;
     }
 
     private void enableWorld() {
@@ -404,12 +639,16 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         mWorldView.disable();
         mEndTurnButton.setEnabled(false);
         mWorldView.setOnTouchListener(null);
+        mRecognitionWorker.cancel();
         mGestureView.clear();
         dismissPopup();
     }
 
     private void clearIncantation() {
+        for (final Gesture gesture : mGestureBuffer)
+            recordGesture(gesture, null);
         mGestureBuffer.clear();
+        mIncantationState = IncantationMatcher.START;
         mIncantationView.clearGestures();
     }
 
@@ -438,6 +677,23 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         disableWorld();
     }
 
+    // the meters show this player's copy in the world, which spells change
+    private void updateMeters() {
+        final EntityStore entities = mWorld.getEntityStore();
+        final int handle = entities.findPlayer(mListener.getPlayer());
+        if (handle < 0)
+            return;
+
+        final Player player = entities.getPlayer(handle);
+        mHealthView.update(Math.max(0, player.stamina) / (float) World.STAMINA);
+        mTimeUnitsView.update(player.timeUnits / (float) World.TIME_UNITS);
+    }
+
+    private void onMatchOutOfSync() {
+        showCoverText(R.string.out_of_sync);
+        disableWorld();
+    }
+
     private void dismissPopup() {
         if (mPopupWindow != null && mPopupWindow.isShowing()) {
             mPopupWindow.dismiss();
@@ -557,6 +813,7 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         final String name;
         final float score;
         final PointF[] points;
+        StrokeCorpus.Entry recording; // debug builds only
 
         public Gesture(final String name, final float score, final PointF[] points) {
             this.name = name;
@@ -565,39 +822,4 @@ public class MatchFragment extends Fragment implements View.OnTouchListener, Vie
         }
     }
 
-    class Incantation {
-
-        final String[] mGestures;
-
-        public Incantation(final String[] gestures) {
-            mGestures = gestures;
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-
-            if (o == null || !(o instanceof Incantation))
-                return false;
-
-            final Incantation other = (Incantation)o;
-
-            if (other.mGestures.length != mGestures.length)
-                return false;
-
-            for (int i=0; i<mGestures.length; i++)
-                if (!mGestures[i].equals(other.mGestures[i]))
-                    return false;
-
-            return true;
-        }
-
-        @Override
-        public int hashCode() {
-            int rv = 1;
-            for (String gesture : mGestures)
-                rv = rv * 31 + gesture.hashCode();
-            return rv;
-        }
-    }
-
 }
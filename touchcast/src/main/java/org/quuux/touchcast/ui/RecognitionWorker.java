@@ -0,0 +1,508 @@
+package org.quuux.touchcast.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.quuux.touchcast.Log;
+import org.quuux.touchcast.gesture.MultiStrokeRecognizer;
+import org.quuux.touchcast.gesture.PlayerTemplates;
+import org.quuux.touchcast.gesture.Recognizer;
+import org.quuux.touchcast.gesture.RecognizerSession;
+import org.quuux.touchcast.gesture.StrokeCorpus;
+import org.quuux.touchcast.gesture.TieredRecognizer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs stroke recognition on a dedicated thread so that touch handling never
+ * waits on a template scan. The recognizer and its session are only touched
+ * by that thread, the ui thread hands over points in batches and results are
+ * posted back to the main looper.
+ *
+ * Starting a stroke makes the previews of earlier strokes stale, they are
+ * skipped if not yet run and dropped if not yet delivered. A finished stroke
+ * is always recognized unless cancel is called.
+ *
+ * With a multistroke recognizer set, finished strokes are grouped until no
+ * new stroke starts within the pause. A group of one stroke is recognized
+ * as a unistroke, larger groups against the multistroke templates.
+ *
+ * The tier strokes are recognized at is picked at the start of each stroke,
+ * see TieredRecognizer.
+ *
+ * With early commit on, a stroke that settles before it is finished, see
+ * settle, is recognized right away if the leader is confident enough. Its
+ * completion then only checks the early result against the whole stroke and
+ * logs how often early commits are overturned and how much time they save.
+ *
+ * A player's own samples are read and stored on the worker thread too, new
+ * samples are matched against from the next stroke on. So are recorded
+ * strokes.
+ */
+public class RecognitionWorker {
+
+    private static final String TAG = Log.buildTag(RecognitionWorker.class);
+
+    public interface Listener {
+        void onStrokePreview(String name);
+        void onStrokeRecognized(Recognition recognition);
+    }
+
+    /**
+     * A finished gesture. Queue wait is the time from the end of the gesture
+     * until the worker picked it up, compute is the recognition itself.
+     */
+    public static class Recognition {
+        public final int stroke; // id returned by begin, the last one of a group
+        public final String name;
+        public final float score;
+        public final float[] points;
+        public final int strokes;
+        public final long queueWaitNanos;
+        public final long computeNanos;
+        public final boolean early; // committed before the stroke was finished
+
+        Recognition(final int stroke, final String name, final float score, final float[] points, final int strokes, final long queueWaitNanos, final long computeNanos, final boolean early) {
+            this.stroke = stroke;
+            this.name = name;
+            this.score = score;
+            this.points = points;
+            this.strokes = strokes;
+            this.queueWaitNanos = queueWaitNanos;
+            this.computeNanos = computeNanos;
+            this.early = early;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+
+    // owned by the worker thread
+    private final TieredRecognizer mRecognizer;
+    private final RecognizerSession mSession;
+    private PlayerTemplates mPlayerTemplates;
+    private StrokeCorpus.Writer mCorpus;
+    private MultiStrokeRecognizer mMultiStroke;
+    private float[] mGroup = new float[1024];
+    private int mGroupCount;
+    private int mGroupStrokes;
+    private int mGroupLast;
+    private boolean mEarlyCommit;
+    private float mEarlyMinScore;
+    private float mEarlyMinMargin;
+    private int mCommitted; // last stroke committed early
+    private String mCommittedName;
+    private long mCommittedAt;
+    private int mSettles;
+    private int mEarlyCommits;
+    private int mOverturned;
+    private long mSavedNanos;
+
+    // written on the ui thread, read by the worker
+    private volatile int mStroke;
+    private volatile int mCancelledThrough;
+
+    // ui thread batch of points not yet handed to the worker
+    private float[] mBatch = new float[256];
+    private int mBatchCount;
+    private boolean mBatchBegins;
+
+    private long mPauseMillis;
+    private Recognizer.Mode mFlushMode;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            submit(new Job(Job.FLUSH, mStroke, mFlushMode));
+        }
+    };
+
+    public RecognitionWorker(final Recognizer recognizer, final Listener listener) {
+        this(new TieredRecognizer(recognizer), listener);
+    }
+
+    public RecognitionWorker(final TieredRecognizer recognizer, final Listener listener) {
+        mRecognizer = recognizer;
+        mSession = new RecognizerSession(recognizer.getRecognizer());
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "recognition");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Groups strokes that start within pauseMillis of the end of the last
+     * one and recognizes them together. Pass null to recognize every stroke
+     * on its own. Must be set before the first stroke.
+     */
+    public void setMultiStroke(final MultiStrokeRecognizer recognizer, final long pauseMillis) {
+        mMultiStroke = recognizer;
+        mPauseMillis = pauseMillis;
+    }
+
+    /**
+     * Commits settled strokes early when the leader scores at least minScore
+     * and at least minMargin times the best candidate of another name.
+     * Ignored when grouping strokes.
+     */
+    public void setEarlyCommit(final boolean enabled, final float minScore, final float minMargin) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mEarlyCommit = enabled;
+                mEarlyMinScore = minScore;
+                mEarlyMinMargin = minMargin;
+            }
+        });
+    }
+
+    /**
+     * Adds a player's samples to the templates and stores the samples given
+     * to learn with them.
+     */
+    public void setPlayerTemplates(final PlayerTemplates templates) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                mPlayerTemplates = templates;
+                final List<PlayerTemplates.Sample> samples = templates.getSamples();
+                for (final PlayerTemplates.Sample sample : samples)
+                    mRecognizer.addTemplate(sample.stroke);
+                Log.d(TAG, "added %d player samples in %.2fms", samples.size(), (System.nanoTime() - start) / 1e6);
+            }
+        });
+    }
+
+    /**
+     * Stores a stroke as a sample of the named gesture and matches against
+     * it from now on. Ignored without player templates.
+     */
+    public void learn(final String name, final float[] points, final int count) {
+        final float[] copy = Arrays.copyOf(points, count * 2);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlayerTemplates != null)
+                    mRecognizer.addTemplate(mPlayerTemplates.add(name, copy, count).stroke);
+            }
+        });
+    }
+
+    /**
+     * Appends strokes passed to record to a corpus. Pass null to stop.
+     */
+    public void setCorpus(final StrokeCorpus.Writer corpus) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mCorpus = corpus;
+            }
+        });
+    }
+
+    public void record(final StrokeCorpus.Entry entry) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCorpus != null)
+                    mCorpus.write(entry);
+            }
+        });
+    }
+
+    /**
+     * Starts a stroke and returns its id, see Recognition.stroke.
+     */
+    public int begin() {
+        mHandler.removeCallbacks(mFlush);
+        mStroke++;
+        mBatchCount = 0;
+        mBatchBegins = true;
+        return mStroke;
+    }
+
+    public void add(final float x, final float y) {
+        if (mBatch.length < (mBatchCount + 1) * 2)
+            mBatch = Arrays.copyOf(mBatch, mBatch.length * 2);
+
+        mBatch[mBatchCount * 2] = x;
+        mBatch[mBatchCount * 2 + 1] = y;
+        mBatchCount++;
+    }
+
+    /**
+     * Hands the points added since the last call to the worker and re-ranks
+     * the candidates, the listener hears about it if the leader changed.
+     */
+    public void preview() {
+        submit(new Job(Job.PREVIEW, mStroke, null));
+    }
+
+    /**
+     * Hands over the points added so far for a stroke that has stopped
+     * moving but is not finished. It is recognized right away if the leader
+     * is confident enough, see setEarlyCommit.
+     */
+    public void settle(final Recognizer.Mode mode) {
+        if (mMultiStroke == null)
+            submit(new Job(Job.SETTLE, mStroke, mode));
+    }
+
+    public void complete(final Recognizer.Mode mode) {
+        if (mMultiStroke == null) {
+            submit(new Job(Job.COMPLETE, mStroke, mode));
+            return;
+        }
+
+        submit(new Job(Job.GROUP, mStroke, mode));
+        mFlushMode = mode;
+        mHandler.postDelayed(mFlush, mPauseMillis);
+    }
+
+    /**
+     * Drops every stroke up to the current one, including finished strokes
+     * still waiting to be recognized or delivered.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mFlush);
+        mCancelledThrough = mStroke;
+    }
+
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    private void submit(final Job job) {
+        try {
+            mExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "worker is shut down, dropping stroke %d", job.mId);
+        }
+    }
+
+    private void execute(final Runnable runnable) {
+        try {
+            mExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "worker is shut down, dropping task");
+        }
+    }
+
+    private boolean isStale(final int stroke, final boolean complete) {
+        return stroke <= mCancelledThrough || (!complete && stroke != mStroke);
+    }
+
+    private class Job implements Runnable {
+        static final int PREVIEW = 0;
+        static final int COMPLETE = 1;
+        static final int GROUP = 2; // add the stroke to the group
+        static final int FLUSH = 3; // recognize the group
+        static final int SETTLE = 4; // commit early if confident
+
+        final int mKind;
+        final int mId;
+        final Recognizer.Mode mMode;
+        final boolean mBegins;
+        final float[] mPoints;
+        final long mSubmitted = System.nanoTime();
+
+        Job(final int kind, final int stroke, final Recognizer.Mode mode) {
+            mKind = kind;
+            mId = stroke;
+            mMode = mode;
+            mBegins = mBatchBegins;
+            mPoints = Arrays.copyOf(mBatch, mBatchCount * 2);
+            mBatchCount = 0;
+            mBatchBegins = false;
+        }
+
+        @Override
+        public void run() {
+            final long started = System.nanoTime();
+
+            // points are always appended, a stale preview may still be
+            // followed by the completion of its stroke
+            if (mBegins) {
+                mSession.setRecognizer(mRecognizer.select());
+                mSession.begin();
+            }
+
+            for (int i = 0; i < mPoints.length; i += 2)
+                mSession.add(mPoints[i], mPoints[i + 1]);
+
+            if (isStale(mId, mKind != PREVIEW && mKind != SETTLE)) {
+                if (mKind == FLUSH)
+                    clearGroup();
+                return;
+            }
+
+            switch (mKind) {
+                case PREVIEW:
+                    if (mId != mCommitted && mSession.update() && mSession.getLeader() != null)
+                        deliverPreview(mSession.getLeader().name);
+                    break;
+
+                case SETTLE:
+                    if (mEarlyCommit && mId != mCommitted)
+                        commitEarly(started);
+                    break;
+
+                case COMPLETE:
+                    if (mId == mCommitted)
+                        checkEarly();
+                    else
+                        recognizeStroke(started);
+                    break;
+
+                case GROUP:
+                    addToGroup();
+                    break;
+
+                case FLUSH:
+                    if (mGroupStrokes == 1)
+                        recognizeStroke(started);
+                    else if (mGroupStrokes > 1)
+                        recognizeGroup(started);
+                    clearGroup();
+                    break;
+            }
+        }
+
+        private void recognizeStroke(final long started) {
+            final long computeStarted = System.nanoTime();
+            final Recognizer.Result result = mSession.complete(mMode);
+            final long finished = System.nanoTime();
+
+            if (result != null)
+                deliver(new Recognition(mId, result.stroke.name, result.score, mSession.copyPoints(), 1,
+                        started - mSubmitted, finished - computeStarted, false));
+        }
+
+        private void commitEarly(final long started) {
+            mSettles++;
+
+            final long computeStarted = System.nanoTime();
+            mSession.refresh();
+            if (!isConfident())
+                return;
+
+            final Recognizer.Result result = mSession.complete(mMode);
+            final long finished = System.nanoTime();
+            if (result == null)
+                return;
+
+            mCommitted = mId;
+            mCommittedName = result.stroke.name;
+            mCommittedAt = finished;
+            mEarlyCommits++;
+            deliver(new Recognition(mId, result.stroke.name, result.score, mSession.copyPoints(), 1,
+                    started - mSubmitted, finished - computeStarted, true));
+        }
+
+        private boolean isConfident() {
+            final Recognizer.UniStroke leader = mSession.getLeader();
+            if (leader == null)
+                return false;
+
+            final float score = mSession.getLeaderScore();
+            final int count = mSession.getCandidateCount();
+            float runnerUp = -1;
+            for (int i = 1; i < count; i++) {
+                if (!mSession.getCandidate(i).name.equals(leader.name)) {
+                    runnerUp = mSession.getCandidateScore(i);
+                    break;
+                }
+            }
+
+            // every candidate is a sample of the leader, such as once a
+            // player has recorded a few. the best of another name past the
+            // shortlist scores at most the last candidate
+            if (runnerUp < 0)
+                runnerUp = mSession.isShortlistFull() ? mSession.getCandidateScore(count - 1) : 0;
+
+            return score >= mEarlyMinScore && score >= runnerUp * mEarlyMinMargin;
+        }
+
+        // recognizes the whole of an early committed stroke to see whether
+        // committing early got it right
+        private void checkEarly() {
+            final Recognizer.Result result = mSession.complete(mMode);
+            final boolean overturned = result != null && !result.stroke.name.equals(mCommittedName);
+            if (overturned)
+                mOverturned++;
+
+            // completion is submitted as the stroke is finished
+            final long saved = Math.max(0, mSubmitted - mCommittedAt);
+            mSavedNanos += saved;
+
+            Log.d(TAG, "early %s %s %.0fms before the end of the stroke, %d of %d settled strokes committed, %d overturned (%.1f%%), %.0fms saved on average",
+                    mCommittedName, overturned ? "overturned by " + result.stroke.name : "confirmed", saved / 1e6,
+                    mEarlyCommits, mSettles, mOverturned, 100f * mOverturned / mEarlyCommits, mSavedNanos / 1e6 / mEarlyCommits);
+        }
+
+        private void recognizeGroup(final long started) {
+            final long computeStarted = System.nanoTime();
+            final Recognizer.Result result = mMultiStroke.recognize(mGroup, mGroupCount, mGroupStrokes, mMode);
+            final long finished = System.nanoTime();
+
+            if (result != null)
+                deliver(new Recognition(mId, result.stroke.name, result.score, Arrays.copyOf(mGroup, mGroupCount * 2), mGroupStrokes,
+                        started - mSubmitted, finished - computeStarted, false));
+        }
+
+        private void addToGroup() {
+            // leftovers of a cancelled group are never flushed
+            if (mGroupStrokes > 0 && isStale(mGroupLast, true))
+                clearGroup();
+
+            final int count = mSession.getCount();
+            if (mGroup.length < (mGroupCount + count) * 2)
+                mGroup = Arrays.copyOf(mGroup, Math.max(mGroup.length * 2, (mGroupCount + count) * 2));
+
+            System.arraycopy(mSession.getPoints(), 0, mGroup, mGroupCount * 2, count * 2);
+            mGroupCount += count;
+            mGroupStrokes++;
+            mGroupLast = mId;
+        }
+
+        private void clearGroup() {
+            mGroupCount = 0;
+            mGroupStrokes = 0;
+        }
+
+        private void deliverPreview(final String name) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isStale(mId, false))
+                        mListener.onStrokePreview(name);
+                }
+            });
+        }
+
+        private void deliver(final Recognition recognition) {
+            Log.d(TAG, "recognized %s from %d strokes in %.2fms (queued %.2fms)%s", recognition.name, recognition.strokes,
+                    recognition.computeNanos / 1e6, recognition.queueWaitNanos / 1e6, recognition.early ? " early" : "");
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isStale(mId, true))
+                        mListener.onStrokeRecognized(recognition);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.quuux.touchcast.ui;
+
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+import org.quuux.touchcast.gesture.Recognizer;
+
+/**
+ * PointF adapters over the packed stroke math in Recognizer.
+ */
+public class Strokes {
+
+    static float[] pack(final PointF[] points, float[] dst) {
+        if (dst == null || dst.length < points.length * 2)
+            dst = new float[points.length * 2];
+
+        for (int i = 0; i < points.length; i++) {
+            dst[i * 2] = points[i].x;
+            dst[i * 2 + 1] = points[i].y;
+        }
+        return dst;
+    }
+
+    static PointF[] unpack(final float[] points, final int count) {
+        final PointF[] rv = new PointF[count];
+        for (int i = 0; i < count; i++)
+            rv[i] = new PointF(points[i * 2], points[i * 2 + 1]);
+        return rv;
+    }
+
+    static PointF[] translateTo(final PointF[] points, final PointF point) {
+        final float[] packed = pack(points, null);
+        return unpack(Recognizer.translateTo(packed, points.length, point.x, point.y, packed), points.length);
+    }
+
+    static PointF[] scaleTo(final PointF[] points, final float scale) {
+        final float[] packed = pack(points, null);
+        return unpack(Recognizer.scaleTo(packed, points.length, scale, packed), points.length);
+    }
+
+    public static RectF boundingBox(final PointF[] points) {
+        float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY,
+                minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < points.length; i++) {
+            minX = Math.min(minX, points[i].x);
+            minY = Math.min(minY, points[i].y);
+            maxX = Math.max(maxX, points[i].x);
+            maxY = Math.max(maxY, points[i].y);
+        }
+        return new RectF(minX, minY, maxX, maxY);
+    }
+
+    static PointF[] rotateBy(final PointF[] points, final float radians) {
+        final float[] packed = pack(points, null);
+        return unpack(Recognizer.rotateBy(packed, points.length, radians, packed), points.length);
+    }
+
+    static PointF[] resample(final PointF[] points, final int numPoints) {
+        final float[] resampled = Recognizer.resample(pack(points, null), points.length, numPoints, new float[numPoints * 2]);
+        return unpack(resampled, numPoints);
+    }
+
+    static PointF centroid(final PointF[] points) {
+        final float[] packed = pack(points, null);
+        return new PointF(Recognizer.centroidX(packed, points.length), Recognizer.centroidY(packed, points.length));
+    }
+
+    static float pathLength(final PointF[] points) {
+        float d = 0;
+        for (int i = 1; i < points.length; i++)
+            d += Recognizer.distance(points[i - 1].x, points[i - 1].y, points[i].x, points[i].y);
+        return d;
+    }
+}
@@ -9,6 +9,7 @@ import android.view.View;
 import android.view.animation.AccelerateInterpolator;
 
 import org.quuux.touchcast.Log;
+import org.quuux.touchcast.game.EntityStore;
 import org.quuux.touchcast.game.SpellAction;
 import org.quuux.touchcast.game.Tile;
 import org.quuux.touchcast.game.World;
@@ -82,8 +83,11 @@ public class WorldView extends View {
     }
 
     private void drawEntities(final Canvas canvas, final World world, final float lerp) {
-        for (World.Entity e : mWorld.getEntities()) {
-            mTileset.drawTile(canvas, e);
+        final EntityStore entities = mWorld.getEntityStore();
+        for (int i = 0; i < entities.size(); i++) {
+            if ((entities.getFlags(i) & EntityStore.FLAG_DEAD) != 0)
+                continue;
+            mTileset.drawTile(canvas, entities.getTile(i), entities.getX(i), entities.getY(i));
         }
     }
 
@@ -121,20 +125,25 @@ public class WorldView extends View {
                 world = mWorld;
             }
 
-            if (mLastJournal < mWorld.getJournal().size()) {
+            // mLastJournal is a sequence, it stays put as the journal is
+            // checkpointed
+            final int journalEnd = mWorld.getJournalEnd();
+            if (mLastJournal < journalEnd) {
                 Log.d(TAG,
                         "world journal at %s, last  journal at %s",
-                        mWorld.getJournal().size(),
+                        journalEnd,
                         mLastJournal);
 
-                for (int i = mLastJournal; i < mWorld.getJournal().size(); i++) {
-                    final World.Action action = mWorld.getJournal().get(i);
+                final List<World.Action> journal = mWorld.getJournal();
+                final int checkpoint = mWorld.getCheckpoint();
+                for (int i = Math.max(mLastJournal, checkpoint); i < journalEnd; i++) {
+                    final World.Action action = journal.get(i - checkpoint);
                     final Sprite sprite = createSprite(action);
                     if (sprite != null)
                         mSprites.add(sprite);
                 }
 
-                mLastJournal = mWorld.getJournal().size();
+                mLastJournal = journalEnd;
             }
 
             final float lerp = (float)(start - mLast) / TICK;
@@ -298,10 +307,13 @@ public class WorldView extends View {
         @Override
         void tick(final float progress) {
             final float lerp = mInterpolator.getInterpolation(progress);
-            final float startX = mAction.getActor().getX();
-            final float endX = mAction.getTarget().getX();
-            final float startY = mAction.getActor().getY();
-            final float endY = mAction.getTarget().getY();
+            final EntityStore entities = mWorld.getEntityStore();
+            final int actor = mAction.getActor();
+            final int target = mAction.getTarget() >= 0 ? mAction.getTarget() : actor;
+            final float startX = entities.getX(actor);
+            final float endX = entities.getX(target);
+            final float startY = entities.getY(actor);
+            final float endY = entities.getY(target);
             final float dx = endX - startX;
             final float dy = endY - startY;
             final float stepX = dx * lerp;